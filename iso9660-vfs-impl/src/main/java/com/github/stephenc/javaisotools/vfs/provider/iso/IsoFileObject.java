@@ -20,48 +20,34 @@
 package com.github.stephenc.javaisotools.vfs.provider.iso;
 
 import java.io.InputStream;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 import com.github.stephenc.javaisotools.loopfs.iso9660.Iso9660FileEntry;
 import org.apache.commons.vfs.FileName;
 import org.apache.commons.vfs.FileType;
 import org.apache.commons.vfs.provider.AbstractFileObject;
+import org.apache.commons.vfs.provider.UriParser;
 
 /**
  * Implementation of {@link org.apache.commons.vfs.FileObject} for ISO9660 (.iso) files.
  */
 public class IsoFileObject extends AbstractFileObject {
 
-    private Iso9660FileEntry entry;
-    private FileType type;
-    private final Set children;
+    private final Iso9660FileEntry entry;
+    private final FileType type;
 
     /**
-     * Creates an IsoFileObject without a Iso9660FileEntry. The entry must be set before calling getContent(). The
-     * FileType is set to IMAGINARY until the underlying entry is set.
+     * Creates an IsoFileObject without a Iso9660FileEntry, for a name that does not exist in the .iso file. The
+     * FileType is IMAGINARY.
      */
     IsoFileObject(final FileName name, final IsoFileSystem fs) {
         super(name, fs);
+        this.entry = null;
         this.type = FileType.IMAGINARY;
-        this.children = new HashSet();
     }
 
     IsoFileObject(final FileName name, final Iso9660FileEntry entry, final IsoFileSystem fs) {
         super(name, fs);
-        setIsoEntry(entry);
-        this.children = new HashSet();
-    }
-
-    /**
-     * Sets the Iso9660FileEntry that backs this FileObject. This method is package-private because IsoFileSystem
-     * pre-creates some directory entries when building the file index, and it needs to set the backing entry after the
-     * fact.
-     */
-    void setIsoEntry(final Iso9660FileEntry entry) {
-        if (null != this.entry) {
-            throw new RuntimeException("Cannot change the underlying entry once it has been set");
-        }
         if (null == entry) {
             throw new IllegalArgumentException("'entry' cannot be null");
         }
@@ -70,13 +56,6 @@ public class IsoFileObject extends AbstractFileObject {
         this.type = (entry.isDirectory()) ? FileType.FOLDER : FileType.FILE;
     }
 
-    /**
-     * Attaches a child to this file. The parent IsoFileSystem calls this method when building the file index.
-     */
-    void attachChild(final FileName childName) {
-        this.children.add(childName.getBaseName());
-    }
-
     /**
      * Always returns false; currently ISO files are only readable.
      */
@@ -88,8 +67,15 @@ public class IsoFileObject extends AbstractFileObject {
         return this.type;
     }
 
-    protected String[] doListChildren() {
-        return (String[]) this.children.toArray(new String[this.children.size()]);
+    protected String[] doListChildren() throws Exception {
+        final List<Iso9660FileEntry> children = ((IsoFileSystem) getFileSystem()).listChildren(this.entry);
+        final String[] names = new String[children.size()];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = UriParser.encode(children.get(i).getName());
+        }
+
+        return names;
     }
 
     protected long doGetContentSize() {
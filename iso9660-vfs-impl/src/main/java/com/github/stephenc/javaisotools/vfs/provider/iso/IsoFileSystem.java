@@ -22,9 +22,7 @@ package com.github.stephenc.javaisotools.vfs.provider.iso;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
 import java.util.List;
 
 import com.github.stephenc.javaisotools.loopfs.iso9660.Iso9660FileEntry;
@@ -41,10 +39,9 @@ import org.apache.commons.vfs.provider.AbstractFileSystem;
 import org.apache.commons.vfs.provider.UriParser;
 
 /**
- * Implementation of {@link org.apache.commons.vfs.FileSystem} for ISO9660 (.iso) files.
- * <p>
- * TODO: perf test with ISO files containing lots of entries; possibly optimize by creating FileObjects on-demand via
- * the createFile() method.
+ * Implementation of {@link org.apache.commons.vfs.FileSystem} for ISO9660 (.iso) files. Entries are looked up when
+ * they are first resolved and directories are listed when they are first opened, so opening an image costs the same
+ * however many entries it contains.
  */
 public class IsoFileSystem extends AbstractFileSystem {
 
@@ -70,62 +67,6 @@ public class IsoFileSystem extends AbstractFileSystem {
         catch (IOException ex) {
             throw new FileSystemException("vfs.provider.iso/open-iso-file.error", file, ex);
         }
-
-        // Build the index
-        final List strongRef = new ArrayList(100);
-
-        boolean skipRoot = false;
-
-        for (Iso9660FileEntry entry: this.fileSystem) {
-
-            String name = entry.getPath();
-
-            // skip entries without names (should only be one - the root entry)
-            if ("".equals(name)) {
-                if (!skipRoot) {
-                    skipRoot = true;
-                } else {
-                    continue;
-                }
-            }
-
-            final FileName filename = getFileSystemManager().
-                    resolveName(getRootName(), UriParser.encode(name));
-
-            // Create the file
-            IsoFileObject fileObj;
-
-            if (entry.isDirectory() && getFileFromCache(filename) != null) {
-                fileObj = (IsoFileObject) getFileFromCache(filename);
-                fileObj.setIsoEntry(entry);
-                continue;
-            }
-
-            fileObj = new IsoFileObject(filename, entry, this);
-            putFileToCache(fileObj);
-            strongRef.add(fileObj);
-            fileObj.holdObject(strongRef);
-
-            // Make sure all ancestors exist
-            IsoFileObject parent;
-
-            for (FileName parentName = filename.getParent(); parentName != null;
-                 fileObj = parent, parentName = parentName.getParent()) {
-
-                // Locate the parent
-                parent = (IsoFileObject) getFileFromCache(parentName);
-
-                if (parent == null) {
-                    parent = new IsoFileObject(parentName, this);
-                    putFileToCache(parent);
-                    strongRef.add(parent);
-                    parent.holdObject(strongRef);
-                }
-
-                // Attach child to parent
-                parent.attachChild(fileObj.getName());
-            }
-        }
     }
 
     protected void addCapabilities(final Collection caps) {
@@ -133,11 +74,17 @@ public class IsoFileSystem extends AbstractFileSystem {
     }
 
     /**
-     * Since this method is only called for files that don't actually exist in the .iso file, it always returns
-     * IMAGINARY files. Any attempt to access their content results in an exception.
+     * Looks the file up in the .iso file. Files that don't actually exist in the .iso file are returned as IMAGINARY
+     * files; any attempt to access their content results in an exception.
      */
     protected FileObject createFile(final FileName name) throws Exception {
-        return new IsoFileObject(name, this);
+        final Iso9660FileEntry entry = this.fileSystem.getEntry(UriParser.decode(name.getPath()));
+
+        if (null == entry) {
+            return new IsoFileObject(name, this);
+        }
+
+        return new IsoFileObject(name, entry, this);
     }
 
     /**
@@ -166,4 +113,11 @@ public class IsoFileSystem extends AbstractFileSystem {
     InputStream getInputStream(final Iso9660FileEntry entry) {
         return this.fileSystem.getInputStream(entry);
     }
+
+    /**
+     * Returns the children of the specified directory entry. Called by {@link IsoFileObject#doListChildren()}.
+     */
+    List<Iso9660FileEntry> listChildren(final Iso9660FileEntry entry) throws IOException {
+        return this.fileSystem.listChildren(entry);
+    }
 }
\ No newline at end of file
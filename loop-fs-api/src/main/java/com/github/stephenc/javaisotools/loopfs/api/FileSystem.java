@@ -23,6 +23,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Enumeration;
+import java.util.List;
 
 /**
  * A loop-fs file system, which is deserialize-only and consists of zero or more entries. The data for each entry can be
@@ -39,6 +40,28 @@ public interface FileSystem<T extends FileEntry> extends Iterable<T>, Closeable
      */
     InputStream getInputStream(T entry);
 
+    /**
+     * Returns the root directory of this file system.
+     *
+     * @return the root entry
+     *
+     * @throws IOException if the file system structures could not be read
+     */
+    T getRoot() throws IOException;
+
+    /**
+     * Returns the entries directly contained in the given directory. Unlike {@link #iterator()}, which walks the
+     * whole file system, this only reads the data of the one directory.
+     *
+     * @param directory a directory entry of this file system
+     *
+     * @return the children of the directory, never including entries for the directory itself or its parent
+     *
+     * @throws IOException              if the directory could not be read
+     * @throws IllegalArgumentException if <code>directory</code> is not a directory
+     */
+    List<T> listChildren(T directory) throws IOException;
+
     /**
      * Returns whether or not this FileSystem has been closed.
      *
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.stephenc.javaisotools.loopfs.spi.CacheStats;
+
+/**
+ * A cache of decoded directory listings, keyed by the first block of the directory extent. Where the block cache saves
+ * the I/O, this also saves decoding the records, so repeated listings of and lookups in hot directories cost a map
+ * lookup. Each listing weighs as much as its number of children (at least 1) and the least recently used listings are
+ * evicted once the total weight goes over the maximum; a listing heavier than the maximum is never cached.
+ */
+public class DirectoryCache {
+
+    /**
+     * The default maximum weight, in entries.
+     */
+    public static final int DEFAULT_MAXIMUM_WEIGHT = 16 * 1024;
+
+    private final long maximumWeight;
+
+    private final LinkedHashMap<Long, Listing> listings;
+
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public DirectoryCache(final long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("'maximumWeight' must be > 0");
+        }
+        this.maximumWeight = maximumWeight;
+        this.listings = new LinkedHashMap<Long, Listing>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached children of the directory starting at <code>block</code>, or null if they are not cached. A
+     * directory reached through a different path is not a hit, as its entries would report the wrong paths.
+     */
+    synchronized Iso9660FileEntry[] get(final long block, final String path) {
+        final Listing listing = this.listings.get(block);
+        if (null == listing || !listing.path.equals(path)) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return listing.children;
+    }
+
+    synchronized void put(final long block, final String path, final List<Iso9660FileEntry> children) {
+        final long listingWeight = weigh(children.size());
+        if (listingWeight > this.maximumWeight) {
+            return;
+        }
+
+        final Listing previous = this.listings.put(block,
+                new Listing(path, children.toArray(new Iso9660FileEntry[children.size()])));
+        if (null != previous) {
+            this.weight -= weigh(previous.children.length);
+        }
+        this.weight += listingWeight;
+
+        final Iterator<Map.Entry<Long, Listing>> eldest = this.listings.entrySet().iterator();
+        while (this.weight > this.maximumWeight) {
+            this.weight -= weigh(eldest.next().getValue().children.length);
+            eldest.remove();
+            this.evictions++;
+        }
+    }
+
+    private static long weigh(final int children) {
+        return Math.max(1, children);
+    }
+
+    /**
+     * Removes all listings from the cache.
+     */
+    public synchronized void clear() {
+        this.listings.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * Returns a snapshot of the cache counters. The weight is measured in entries.
+     */
+    public synchronized CacheStats getStats() {
+        return new CacheStats(this.hits, this.misses, this.evictions, this.weight, this.maximumWeight);
+    }
+
+    private static final class Listing {
+
+        private final String path;
+        private final Iso9660FileEntry[] children;
+
+        Listing(final String path, final Iso9660FileEntry[] children) {
+            this.path = path;
+            this.children = children;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A forward-only cursor over the records of a directory extent. The cursor is a flyweight: the accessors decode the
+ * current record in place, so walking a directory allocates nothing beyond the cursor's own buffer. The extent is
+ * read in chunks of at most {@link #DEFAULT_CHUNK_SIZE} bytes, however large the directory is. Call
+ * {@link #toEntry()} to materialize an {@link Iso9660FileEntry} for the records that are actually needed.
+ * <p/>
+ * The "." and ".." records are skipped. A file recorded as several consecutive records, one per extent, is returned
+ * as a single record whose size is the total of its extents, see {@link #getExtentCount()}. A cursor is not thread
+ * safe, but can be {@link #reset(long, long, String) reset} to walk another directory with the same buffer.
+ */
+public final class DirectoryRecordCursor {
+
+    /**
+     * The largest number of bytes read from the directory extent at a time, 16 blocks.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * Constants.DEFAULT_BLOCK_SIZE;
+
+    private final Iso9660FileSystem fileSystem;
+    private final byte[] chunk;
+    private final ByteBuffer chunkBuffer;
+
+    private long startBlock;
+    private long size;
+    private String parentPath;
+
+    // whether the records are known to belong to the primary hierarchy, see Iso9660FileSystem#getPrimaryZisofs()
+    private final boolean primary;
+
+    // offset in the extent of the first byte of the chunk, and the number of valid bytes in the chunk
+    private long chunkStart;
+    private int chunkLength;
+
+    // offset in the chunk of the next record to look at, and of the current record (or -1)
+    private int position;
+    private int record;
+    private int recordIndex;
+
+    // a file recorded in several records: a copy of its first record, and its extents as pairs of start block and size
+    private final byte[] firstRecord = new byte[256];
+    private final ByteBuffer firstRecordBuffer = ByteBuffer.wrap(this.firstRecord);
+    private long[] extents = new long[8];
+    private int extentCount;
+    private long extentsSize;
+
+    // the buffer holding the current record, the chunk or the copy of a multi-extent file's first record
+    private byte[] data;
+    private ByteBuffer dataBuffer;
+
+    // the zisofs parameters of the current record found in the primary hierarchy, packed as in ZisofsExtents, or -1
+    private long primaryZisofs;
+
+    /**
+     * Creates a cursor with a buffer of <code>capacity</code> bytes, which must be a multiple of the block size.
+     *
+     * @param size the size of the directory extent, or -1 to take it from the directory's "." record
+     */
+    DirectoryRecordCursor(final Iso9660FileSystem fileSystem, final int capacity, final long startBlock,
+                          final long size, final String parentPath) {
+        this(fileSystem, capacity, startBlock, size, parentPath, false);
+    }
+
+    /**
+     * Creates a cursor over the records of the primary directory hierarchy, or of the hierarchy in use.
+     *
+     * @param primary true if the records belong to the primary hierarchy, whose files carry their own zisofs
+     *                parameters; false to look up the parameters of files without a <code>ZF</code> entry there
+     */
+    DirectoryRecordCursor(final Iso9660FileSystem fileSystem, final int capacity, final long startBlock,
+                          final long size, final String parentPath, final boolean primary) {
+        this.fileSystem = fileSystem;
+        this.primary = primary;
+        this.chunk = new byte[capacity];
+        this.chunkBuffer = ByteBuffer.wrap(this.chunk);
+        reset(startBlock, size, parentPath);
+    }
+
+    /**
+     * Moves the cursor to the start of another directory, reusing the same buffer.
+     *
+     * @param startBlock the first block of the directory extent
+     * @param size       the size of the directory extent, or -1 to take it from the directory's "." record
+     * @param parentPath the path of the directory, used for the entries created by {@link #toEntry()}; may be null
+     */
+    public void reset(final long startBlock, final long size, final String parentPath) {
+        this.startBlock = startBlock;
+        this.size = size;
+        this.parentPath = parentPath;
+        this.chunkStart = 0;
+        this.chunkLength = 0;
+        this.position = 0;
+        this.record = -1;
+        this.recordIndex = 0;
+        this.extentCount = 0;
+    }
+
+    /**
+     * Moves the cursor to the start of another directory, reusing the same buffer.
+     */
+    public void reset(final Iso9660FileEntry directory) {
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + directory.getPath());
+        }
+        reset(directory.getStartBlock(), directory.getSize(), directory.getPath());
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return true if there is a current record, false once the end of the directory has been reached
+     */
+    public boolean next() throws IOException {
+        this.extentCount = 0;
+
+        // records 0 and 1 are "." and ".."
+        do {
+            if (!nextRecord()) {
+                return false;
+            }
+        } while (this.recordIndex++ <= 1);
+
+        if ((getFlags() & 0x80) != 0) {
+            mergeExtents();
+        }
+
+        this.primaryZisofs = -1;
+        if (!this.primary && !isDirectory() && findZF() < 0) {
+            this.primaryZisofs = this.fileSystem.getPrimaryZisofs().get(getStartBlock());
+        }
+        return true;
+    }
+
+    /**
+     * Moves to the next record in the extent, whatever it is.
+     */
+    private boolean nextRecord() throws IOException {
+        this.record = -1;
+        this.data = this.chunk;
+        this.dataBuffer = this.chunkBuffer;
+
+        while (true) {
+            if (this.position >= this.chunkLength && !fill()) {
+                return false;
+            }
+
+            final int length = Util.getUInt8(this.chunk, this.position + 1);
+
+            if (length == 0) {
+                // records never cross block boundaries, a zero length marks the padding at the end of a block
+                this.position = (this.position / Constants.DEFAULT_BLOCK_SIZE + 1) * Constants.DEFAULT_BLOCK_SIZE;
+                continue;
+            }
+
+            final int end = this.position + length;
+            if (end > this.chunkLength
+                    || this.position / Constants.DEFAULT_BLOCK_SIZE != (end - 1) / Constants.DEFAULT_BLOCK_SIZE) {
+                throw new IOException("Directory record at offset " + (this.chunkStart + this.position)
+                        + " of the directory at block " + this.startBlock + " crosses a block boundary");
+            }
+
+            this.record = this.position;
+            this.position += length;
+
+            if (this.recordIndex == 0 && this.size < 0) {
+                // the first record is ".", which describes this directory's own extent
+                this.size = getStoredSize();
+                this.chunkLength = (int) Math.min(this.chunkLength, this.size - this.chunkStart);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Collects the extents of a file whose records carry the multi-extent flag, up to and including the record
+     * without it, and makes a copy of the first record the current one. The records may span chunks.
+     */
+    private void mergeExtents() throws IOException {
+        final int length = getRecordLength();
+        System.arraycopy(this.chunk, this.record, this.firstRecord, 0, length);
+
+        long size = 0;
+        int flags;
+        do {
+            if (this.extentCount * 2 == this.extents.length) {
+                this.extents = Arrays.copyOf(this.extents, this.extents.length * 2);
+            }
+            final long extentSize = Util.getUInt32LE(this.chunk, this.record + 11);
+            this.extents[this.extentCount * 2] = getStartBlock();
+            this.extents[this.extentCount * 2 + 1] = extentSize;
+            size += extentSize;
+            this.extentCount++;
+            flags = getFlags();
+
+            if ((flags & 0x80) != 0 && !nextRecord()) {
+                throw new IOException("The directory at block " + this.startBlock
+                        + " ends before the last record of a multi-extent file");
+            }
+        } while ((flags & 0x80) != 0);
+
+        this.data = this.firstRecord;
+        this.dataBuffer = this.firstRecordBuffer;
+        this.record = 0;
+        this.extentsSize = size;
+    }
+
+    private boolean fill() throws IOException {
+        final long offset = this.chunkStart + this.chunkLength;
+        final long remaining = (this.size < 0) ? this.chunk.length : this.size - offset;
+
+        if (remaining <= 0) {
+            return false;
+        }
+
+        final int length = (int) Math.min(this.chunk.length, remaining);
+        final long pos = this.startBlock * Constants.DEFAULT_BLOCK_SIZE + offset;
+        final int read = this.fileSystem.readMetadata(pos, this.chunk, 0, length);
+
+        if (read <= 0) {
+            return false;
+        }
+
+        this.chunkStart = offset;
+        this.chunkLength = read;
+        this.position = 0;
+        return true;
+    }
+
+    private int current() {
+        if (this.record < 0) {
+            throw new IllegalStateException("No current record");
+        }
+        return this.record;
+    }
+
+    /**
+     * Returns the length of the current record in bytes.
+     */
+    public int getRecordLength() {
+        return Util.getUInt8(this.data, current() + 1);
+    }
+
+    /**
+     * Returns the block number where the current record's data starts.
+     */
+    public long getStartBlock() {
+        return Util.getUInt32LE(this.data, current() + 3);
+    }
+
+    /**
+     * Returns the size of the current record's data in bytes, the total of all its extents, uncompressed for a file
+     * stored with zisofs.
+     */
+    public long getSize() {
+        if (this.primaryZisofs >= 0) {
+            return this.primaryZisofs >>> 8;
+        }
+        final int zf = findZF();
+        return (zf < 0) ? getStoredSize() : ZisofsReader.getUncompressedSize(this.dataBuffer, zf);
+    }
+
+    /**
+     * Returns the number of bytes the current record's data takes up in the image, see
+     * {@link Iso9660FileEntry#getStoredSize()}.
+     */
+    long getStoredSize() {
+        if (this.extentCount > 0) {
+            return this.extentsSize;
+        }
+        return Util.getUInt32LE(this.data, current() + 11);
+    }
+
+    /**
+     * Returns the log2 of the zisofs block size of the current record, or 0 if its data is not compressed.
+     */
+    int getZisofsBlockShift() {
+        if (this.primaryZisofs >= 0) {
+            return (int) (this.primaryZisofs & 0xff);
+        }
+        final int zf = findZF();
+        return (zf < 0) ? 0 : ZisofsReader.getBlockShift(this.dataBuffer, zf);
+    }
+
+    private int findZF() {
+        return isDirectory() ? -1 : ZisofsReader.findZF(this.dataBuffer, current());
+    }
+
+    /**
+     * Returns the recording date and time of the current record in milliseconds since the epoch.
+     */
+    public long getLastModifiedTime() {
+        return Util.getDateTime(this.data, current() + 19);
+    }
+
+    /**
+     * Returns the file flags of the current record. See section 9.1.6. The multi-extent flag (0x80) is kept, so it
+     * tells a file merged from several records apart.
+     */
+    public int getFlags() {
+        return Util.getUInt8(this.data, current() + 26);
+    }
+
+    /**
+     * Returns the number of extents of the current record, more than one for a file recorded in several records.
+     */
+    public int getExtentCount() {
+        current();
+        return Math.max(1, this.extentCount);
+    }
+
+    /**
+     * Returns the extents of the current record as pairs of start block and size, or null if there is only one.
+     */
+    long[] copyExtents() {
+        current();
+        return (this.extentCount > 1) ? Arrays.copyOf(this.extents, this.extentCount * 2) : null;
+    }
+
+    public boolean isDirectory() {
+        return (getFlags() & 0x03) != 0;
+    }
+
+    /**
+     * Returns the buffer holding the current record's file identifier, which is only valid until the cursor moves.
+     * The identifier is {@link #getNameLength()} bytes starting at {@link #getNameOffset()}, in the file system's
+     * encoding and including any version number.
+     */
+    public byte[] getNameBytes() {
+        current();
+        return this.data;
+    }
+
+    public int getNameOffset() {
+        return current() + 33;
+    }
+
+    public int getNameLength() {
+        return Util.getUInt8(this.data, current() + 33);
+    }
+
+    /**
+     * Decodes the current record's name, the same as {@link Iso9660FileEntry#getName()}.
+     */
+    public String getName() {
+        return Iso9660FileEntry.getFileIdentifier(this.fileSystem, this.dataBuffer, current(), isDirectory());
+    }
+
+    /**
+     * Returns the path of the directory being walked, as given when the cursor was opened or reset.
+     */
+    public String getParentPath() {
+        return this.parentPath;
+    }
+
+    /**
+     * Creates an entry for the current record.
+     */
+    public Iso9660FileEntry toEntry() {
+        Iso9660FileEntry entry =
+                new Iso9660FileEntry(this.fileSystem, this.parentPath, this.dataBuffer, current() + 1);
+        if (this.primaryZisofs >= 0) {
+            entry = new Iso9660FileEntry(entry, (int) (this.primaryZisofs & 0xff), this.primaryZisofs >>> 8);
+        }
+        if (this.extentCount > 0) {
+            return new Iso9660FileEntry(entry, Arrays.copyOf(this.extents, this.extentCount * 2));
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * A read-only channel over a FileEntry's data. Positions are relative to the start of the entry and reads never go
+ * past its end. Reads go straight into the caller's buffer, and {@link #transferTo(WritableByteChannel)} lets an
+ * image opened from a file hand the data to the target channel without copying it through the Java heap.
+ * <p/>
+ * Like a {@link java.nio.channels.FileChannel}, the channel has a single position and is not meant to be shared by
+ * threads that each move it; open one channel per reader instead.
+ */
+public final class EntryChannel implements SeekableByteChannel {
+
+    private final Iso9660FileEntry entry;
+
+    private final Iso9660FileSystem fileSystem;
+
+    private long position;
+
+    private boolean open = true;
+
+    // decompresses the data of a zisofs file, null otherwise
+    private final ZisofsReader zisofs;
+
+    EntryChannel(final Iso9660FileEntry entry, final Iso9660FileSystem fileSystem) {
+        this.entry = entry;
+        this.fileSystem = fileSystem;
+        this.zisofs = entry.isCompressed() ? fileSystem.openZisofs(entry) : null;
+    }
+
+    public int read(final ByteBuffer dst) throws IOException {
+        ensureOpen();
+
+        final long remaining = this.entry.getSize() - this.position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        // do not let the read run past the end of the entry
+        final int limit = dst.limit();
+        if (dst.remaining() > remaining) {
+            dst.limit(dst.position() + (int) remaining);
+        }
+        final int read;
+        try {
+            read = (null != this.zisofs) ? this.zisofs.read(this.position, dst)
+                    : this.fileSystem.readBytes(this.entry, this.position, dst);
+        } finally {
+            dst.limit(limit);
+        }
+
+        if (read <= 0) {
+            return -1;
+        }
+        this.position += read;
+        return read;
+    }
+
+    /**
+     * Transfers the data from the current position to the end of the entry to <code>target</code>, and moves the
+     * position past the bytes transferred.
+     *
+     * @return the number of bytes transferred, which is less than the remaining size only if the target did not
+     *         accept more (for instance a non-blocking channel whose buffer is full) or the image is truncated
+     */
+    public long transferTo(final WritableByteChannel target) throws IOException {
+        return transferTo(target, null);
+    }
+
+    /**
+     * Transfers the data from the current position to the end of the entry to <code>target</code>, like
+     * {@link #transferTo(WritableByteChannel)}. The blocks of a file stored with zisofs are decompressed in parallel
+     * on <code>executor</code>, a batch at a time, and written in order; other entries are transferred as usual.
+     *
+     * @param executor runs the decompression of the blocks, or null to decompress them on the calling thread
+     */
+    public long transferTo(final WritableByteChannel target, final Executor executor) throws IOException {
+        ensureOpen();
+
+        final long start = this.position;
+        long remaining = this.entry.getSize() - this.position;
+
+        if (null != this.zisofs) {
+            if (remaining > 0) {
+                this.position += this.zisofs.transferTo(this.position, remaining, target, executor);
+            }
+            return this.position - start;
+        }
+
+        while (remaining > 0) {
+            final long transferred = this.fileSystem.transferBytes(this.entry, this.position, remaining, target);
+            if (transferred <= 0) {
+                break;
+            }
+            this.position += transferred;
+            remaining -= transferred;
+        }
+
+        return this.position - start;
+    }
+
+    public int write(final ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    public long position() throws IOException {
+        ensureOpen();
+        return this.position;
+    }
+
+    /**
+     * Sets the position. A position past the end of the entry is allowed, reads then return -1.
+     */
+    public SeekableByteChannel position(final long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("'newPosition' must be >= 0");
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    public long size() throws IOException {
+        ensureOpen();
+        return this.entry.getSize();
+    }
+
+    public SeekableByteChannel truncate(final long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    public boolean isOpen() {
+        return this.open && !this.fileSystem.isClosed();
+    }
+
+    public void close() {
+        if (this.open && null != this.zisofs) {
+            this.zisofs.close();
+        }
+        this.open = false;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+/**
+ * Selects the entries returned by {@link Iso9660FileSystem#find(EntryFilter)} and the directories it reads. A directory
+ * for which {@link #descend(Iso9660FileEntry)} returns false is never read, so a filter that rules out whole subtrees
+ * saves all the I/O below them.
+ */
+public interface EntryFilter {
+
+    /**
+     * Returns true if <code>entry</code> should be returned.
+     */
+    boolean accept(Iso9660FileEntry entry);
+
+    /**
+     * Returns true if the children of <code>directory</code> should be visited. This is asked before the directory is
+     * read and whether or not the directory itself is accepted.
+     */
+    boolean descend(Iso9660FileEntry directory);
+}
@@ -23,9 +23,22 @@ import java.io.IOException;
 import java.io.InputStream;
 
 /**
- * InputStream that reads a FileEntry's data.
+ * InputStream that reads a FileEntry's data. Small reads are served from a read-ahead buffer that ends on a sector
+ * boundary and doubles in size with every refill while the data is read sequentially, so line-by-line or byte-wise
+ * readers cause a handful of large reads instead of one per call. Reads at least as large as the buffer bypass it.
  */
 class EntryInputStream extends InputStream {
+
+    /**
+     * The initial read-ahead, also used again after a skip.
+     */
+    static final int MIN_READ_AHEAD = 4 * Constants.DEFAULT_BLOCK_SIZE;
+
+    /**
+     * The largest read-ahead.
+     */
+    static final int MAX_READ_AHEAD = 128 * Constants.DEFAULT_BLOCK_SIZE;
+
     // entry within the file system
     private Iso9660FileEntry entry;
 
@@ -38,11 +51,23 @@ class EntryInputStream extends InputStream {
     // number of remaining bytes within entry
     private long rem;
 
+    // read-ahead buffer, from the file system's pool; the unread bytes buffer[bufferPos, bufferLimit) start at pos
+    private byte[] buffer;
+    private int bufferPos;
+    private int bufferLimit;
+
+    // the number of bytes to read ahead on the next refill
+    private int readAhead = MIN_READ_AHEAD;
+
+    // decompresses the data of a zisofs file, null otherwise
+    private ZisofsReader zisofs;
+
     EntryInputStream(final Iso9660FileEntry entry, final Iso9660FileSystem fileSystem) {
         this.fileSystem = fileSystem;
         this.entry = entry;
         this.pos = 0;
         this.rem = entry.getSize();
+        this.zisofs = entry.isCompressed() ? fileSystem.openZisofs(entry) : null;
     }
 
     public int read(final byte b[], final int off, final int len) throws IOException {
@@ -62,34 +87,94 @@ class EntryInputStream extends InputStream {
             toRead = (int)this.rem;
         }
 
-        int read;
+        if (this.fileSystem.isClosed()) {
+            throw new IOException("ISO file closed.");
+        }
 
-        synchronized (this.fileSystem) {
-            if (this.fileSystem.isClosed()) {
-                throw new IOException("ISO file closed.");
+        if (this.bufferPos >= this.bufferLimit) {
+            if (toRead >= this.readAhead) {
+                // no point in copying large reads through the buffer
+                final int read = readEntry(b, off, toRead);
+                if (read > 0) {
+                    this.pos += read;
+                    this.rem -= read;
+                }
+                return read;
             }
 
-            read = this.fileSystem.readBytes(this.entry, this.pos, b, off, toRead);
+            final int filled = fill();
+            if (filled <= 0) {
+                return filled;
+            }
         }
 
-        if (read > 0) {
-            this.pos += read;
-            this.rem -= read;
-        }
+        final int count = Math.min(toRead, this.bufferLimit - this.bufferPos);
+        System.arraycopy(this.buffer, this.bufferPos, b, off, count);
+        this.bufferPos += count;
+        this.pos += count;
+        this.rem -= count;
 
-        return read;
+        return count;
     }
 
     public int read() throws IOException {
         ensureOpen();
 
-        final byte[] b = new byte[1];
-
-        if (read(b, 0, 1) == 1) {
-            return b[0] & 0xff;
-        } else {
+        if (this.rem <= 0) {
             return -1;
         }
+
+        if (this.bufferPos >= this.bufferLimit) {
+            if (this.fileSystem.isClosed()) {
+                throw new IOException("ISO file closed.");
+            }
+            if (fill() <= 0) {
+                return -1;
+            }
+        }
+
+        this.pos++;
+        this.rem--;
+        return this.buffer[this.bufferPos++] & 0xff;
+    }
+
+    /**
+     * Refills the buffer with the data starting at the current position.
+     *
+     * @return the number of bytes now buffered, or the result of the read if nothing could be read
+     */
+    private int fill() throws IOException {
+        if (null == this.buffer || this.buffer.length < this.readAhead) {
+            final byte[] previous = this.buffer;
+            this.buffer = this.fileSystem.getBufferPool().acquire(this.readAhead);
+            if (null != previous) {
+                this.fileSystem.getBufferPool().release(previous);
+            }
+        }
+
+        // stop at a sector boundary so that the next refill starts on one
+        final long start = this.entry.getImagePosition(this.pos);
+        final long size = Math.min(this.readAhead - start % Constants.DEFAULT_BLOCK_SIZE, this.rem);
+
+        final int read = readEntry(this.buffer, 0, (int) size);
+
+        this.bufferPos = 0;
+        this.bufferLimit = Math.max(0, read);
+
+        // the next refill continues where this one stopped, so read further ahead
+        this.readAhead = Math.min(this.readAhead * 2, MAX_READ_AHEAD);
+
+        return read;
+    }
+
+    /**
+     * Reads entry data at the current position, skipping straight to the blocks needed for a zisofs file.
+     */
+    private int readEntry(final byte[] b, final int off, final int len) throws IOException {
+        if (null != this.zisofs) {
+            return this.zisofs.read(this.pos, b, off, len);
+        }
+        return this.fileSystem.readBytes(this.entry, this.pos, b, off, len);
     }
 
     public long skip(final long n) {
@@ -97,6 +182,15 @@ class EntryInputStream extends InputStream {
 
         final long len = (n > this.rem) ? this.rem : n;
 
+        if (len >= 0 && len <= this.bufferLimit - this.bufferPos) {
+            this.bufferPos += (int) len;
+        } else {
+            // the reader is no longer sequential, start reading ahead from scratch
+            this.bufferPos = 0;
+            this.bufferLimit = 0;
+            this.readAhead = MIN_READ_AHEAD;
+        }
+
         this.pos += len;
         this.rem -= len;
 
@@ -124,7 +218,17 @@ class EntryInputStream extends InputStream {
     }
 
     public void close() {
+        if (null != this.buffer && null != this.fileSystem) {
+            this.fileSystem.getBufferPool().release(this.buffer);
+        }
+        this.buffer = null;
+        this.bufferPos = 0;
+        this.bufferLimit = 0;
         this.rem = 0;
+        if (null != this.zisofs) {
+            this.zisofs.close();
+            this.zisofs = null;
+        }
         this.entry = null;
         this.fileSystem = null;
     }
@@ -20,30 +20,55 @@
 package com.github.stephenc.javaisotools.loopfs.iso9660;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.NoSuchElementException;
 
-import com.github.stephenc.javaisotools.loopfs.util.LittleEndian;
-
 /**
- * A breadth-first iterator of the entries in a ISO9660 file system.
+ * A breadth-first iterator of the entries in a ISO9660 file system, optionally restricted by an {@link EntryFilter}.
  */
 class EntryIterator implements Iterator<Iso9660FileEntry> {
 
     private final Iso9660FileSystem fileSystem;
-    private final List<Iso9660FileEntry> queue;
+    private final EntryFilter filter;
+    private final ArrayDeque<Iso9660FileEntry> queue;
+
+    // the next accepted entry, found ahead of time when filtering
+    private Iso9660FileEntry next;
 
     public EntryIterator(final Iso9660FileSystem fileSystem, final Iso9660FileEntry rootEntry) {
+        this(fileSystem, rootEntry, null);
+    }
+
+    /**
+     * @param filter the entries to return and directories to read, or null for all of them
+     */
+    public EntryIterator(final Iso9660FileSystem fileSystem, final Iso9660FileEntry rootEntry,
+                         final EntryFilter filter) {
         this.fileSystem = fileSystem;
-        this.queue = new LinkedList<Iso9660FileEntry>();
+        this.filter = filter;
+        this.queue = new ArrayDeque<Iso9660FileEntry>();
         if (rootEntry != null)
         	this.queue.add(rootEntry);
     }
 
     public boolean hasNext() {
-        return !this.queue.isEmpty();
+        if (null == this.filter) {
+            return !this.queue.isEmpty();
+        }
+
+        while (null == this.next && !this.queue.isEmpty()) {
+            final Iso9660FileEntry entry = this.queue.poll();
+
+            // only read the directories the filter wants to descend into
+            if (entry.isDirectory() && this.filter.descend(entry)) {
+                queueChildren(entry);
+            }
+            if (this.filter.accept(entry)) {
+                this.next = entry;
+            }
+        }
+        return null != this.next;
     }
 
     public Iso9660FileEntry next() {
@@ -51,49 +76,32 @@ class EntryIterator implements Iterator<Iso9660FileEntry> {
             throw new NoSuchElementException();
         }
 
+        if (null != this.filter) {
+            final Iso9660FileEntry entry = this.next;
+            this.next = null;
+            return entry;
+        }
+
         // pop next entry from the queue
-        final Iso9660FileEntry entry = this.queue.remove(0);
+        final Iso9660FileEntry entry = this.queue.poll();
 
         // if the entry is a directory, queue all its children
         if (entry.isDirectory()) {
-            final byte[] content;
-
-            try {
-                content = this.fileSystem.getBytes(entry);
-            }
-            catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-
-            int offset = 0;
-            boolean paddingMode = false;
-
-            while (offset < content.length) {
-                if (LittleEndian.getUInt8(content, offset) <= 0) {
-                    paddingMode = true;
-                    offset += 2;
-                    continue;
-                }
-
-                Iso9660FileEntry child = new Iso9660FileEntry(
-                        this.fileSystem, entry.getPath(), content, offset + 1);
-
-                if (paddingMode && child.getSize() < 0) {
-                    continue;
-                }
-
-                offset += child.getEntryLength();
-
-                // It doesn't seem useful to include the . and .. entries
-                if (!".".equals(child.getName()) && !"..".equals(child.getName())) {
-                    this.queue.add(child);
-                }
-            }
+            queueChildren(entry);
         }
 
         return entry;
     }
 
+    private void queueChildren(final Iso9660FileEntry directory) {
+        try {
+            this.queue.addAll(this.fileSystem.readChildren(directory));
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     public void remove() {
         throw new UnsupportedOperationException();
     }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.stephenc.javaisotools.loopfs.spi.ReadRequest;
+
+/**
+ * A read of part of an entry's data, for {@link Iso9660FileSystem#readEntries(java.util.List)}. The length is cut
+ * short at the end of the entry. Data that spans several extents of a file is read as one piece per extent, and the
+ * data of a file stored with zisofs is decompressed.
+ */
+public class EntryReadRequest extends ReadRequest {
+
+    private final Iso9660FileEntry entry;
+
+    private final long entryOffset;
+
+    // one read per extent for data spanning several extents, null when the data lies in a single extent
+    private final ReadRequest[] pieces;
+
+    /**
+     * Requests the whole of a file of up to 2GB, into a new buffer.
+     */
+    public EntryReadRequest(final Iso9660FileEntry entry) {
+        this(entry, 0, new byte[(int) Math.min(entry.getSize(), Integer.MAX_VALUE)], 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Requests up to <code>length</code> bytes starting at <code>entryOffset</code> within the entry.
+     */
+    public EntryReadRequest(final Iso9660FileEntry entry, final long entryOffset, final byte[] buffer,
+                            final int offset, final int length) {
+        super(entry.getImagePosition(entryOffset), buffer, offset,
+                (int) Math.max(0, Math.min(Math.min(length, buffer.length - offset), entry.getSize() - entryOffset)));
+        this.entry = entry;
+        this.entryOffset = entryOffset;
+
+        if (!entry.isCompressed() && getLength() > entry.getContiguousLength(entryOffset)) {
+            final List<ReadRequest> list = new ArrayList<ReadRequest>();
+            int done = 0;
+            while (done < getLength()) {
+                final int count = (int) Math.min(getLength() - done, entry.getContiguousLength(entryOffset + done));
+                list.add(new ReadRequest(entry.getImagePosition(entryOffset + done), buffer, offset + done, count));
+                done += count;
+            }
+            this.pieces = list.toArray(new ReadRequest[list.size()]);
+        } else {
+            this.pieces = null;
+        }
+    }
+
+    public Iso9660FileEntry getEntry() {
+        return this.entry;
+    }
+
+    /**
+     * Returns the reads to make in place of this one, or null if this request can be read as it is.
+     */
+    ReadRequest[] getPieces() {
+        return this.pieces;
+    }
+
+    /**
+     * Sets the number of bytes read once the pieces have been read: the pieces up to the first that came up short.
+     */
+    void piecesRead() {
+        int total = 0;
+        for (ReadRequest piece : this.pieces) {
+            final int read = Math.max(0, piece.getBytesRead());
+            total += read;
+            if (read < piece.getLength()) {
+                break;
+            }
+        }
+        setBytesRead(total);
+    }
+
+    /**
+     * Reads and decompresses the data of a file stored with zisofs.
+     */
+    void decompress(final Iso9660FileSystem fileSystem) throws IOException {
+        setBytesRead(Math.max(0, fileSystem.readBytes(this.entry, this.entryOffset, getBuffer(), getOffset(),
+                getLength())));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator of the entries in a ISO9660 file system, optionally restricted by an {@link EntryFilter}. It splits by
+ * subtree: the pending entries, each directory among them standing for its whole subtree, are shared out between the
+ * halves, so parallel streams read separate parts of the directory tree on separate threads. Within a spliterator
+ * entries come out breadth-first, but there is no overall encounter order.
+ */
+class EntrySpliterator implements Spliterator<Iso9660FileEntry> {
+
+    private final Iso9660FileSystem fileSystem;
+    private final EntryFilter filter;
+
+    // a directory whose children have already been queued, to be returned before the pending entries
+    private Iso9660FileEntry expanded;
+
+    // the entries not yet returned; the children of the directories among them are still to be read
+    private final ArrayDeque<Iso9660FileEntry> pending;
+    private int pendingDirectories;
+
+    /**
+     * @param filter the entries to return and directories to read, or null for all of them
+     */
+    EntrySpliterator(final Iso9660FileSystem fileSystem, final Iso9660FileEntry rootEntry, final EntryFilter filter) {
+        this(fileSystem, filter);
+        add(rootEntry);
+    }
+
+    private EntrySpliterator(final Iso9660FileSystem fileSystem, final EntryFilter filter) {
+        this.fileSystem = fileSystem;
+        this.filter = filter;
+        this.pending = new ArrayDeque<Iso9660FileEntry>();
+    }
+
+    public boolean tryAdvance(final Consumer<? super Iso9660FileEntry> action) {
+        if (null != this.expanded) {
+            final Iso9660FileEntry entry = this.expanded;
+            this.expanded = null;
+            if (accept(entry)) {
+                action.accept(entry);
+                return true;
+            }
+        }
+
+        Iso9660FileEntry entry;
+        while (null != (entry = this.pending.poll())) {
+            if (entry.isDirectory()) {
+                this.pendingDirectories--;
+                if (descend(entry)) {
+                    addChildren(entry);
+                }
+            }
+            if (accept(entry)) {
+                action.accept(entry);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Spliterator<Iso9660FileEntry> trySplit() {
+        // a lone directory is read now, so that its subtrees can be shared out
+        if (null == this.expanded && this.pending.size() == 1 && this.pendingDirectories == 1) {
+            final Iso9660FileEntry directory = this.pending.poll();
+            this.pendingDirectories = 0;
+            if (descend(directory)) {
+                addChildren(directory);
+            }
+            this.expanded = directory;
+        }
+
+        final int count = this.pending.size() / 2;
+        if (count == 0 || (this.pendingDirectories == 0 && this.pending.size() < 4)) {
+            return null;
+        }
+
+        final EntrySpliterator prefix = new EntrySpliterator(this.fileSystem, this.filter);
+        prefix.expanded = this.expanded;
+        this.expanded = null;
+        for (int i = 0; i < count; i++) {
+            final Iso9660FileEntry entry = this.pending.poll();
+            if (entry.isDirectory()) {
+                this.pendingDirectories--;
+            }
+            prefix.add(entry);
+        }
+        return prefix;
+    }
+
+    /**
+     * Returns the number of pending entries if none of them are directories, or {@link Long#MAX_VALUE} as the size of
+     * the subtrees below the directories is unknown.
+     */
+    public long estimateSize() {
+        return (this.pendingDirectories > 0) ? Long.MAX_VALUE
+                : this.pending.size() + ((null != this.expanded) ? 1 : 0);
+    }
+
+    public int characteristics() {
+        return DISTINCT | NONNULL | IMMUTABLE;
+    }
+
+    private void add(final Iso9660FileEntry entry) {
+        this.pending.add(entry);
+        if (entry.isDirectory()) {
+            this.pendingDirectories++;
+        }
+    }
+
+    private void addChildren(final Iso9660FileEntry directory) {
+        try {
+            for (final Iso9660FileEntry child : this.fileSystem.readChildren(directory)) {
+                add(child);
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private boolean accept(final Iso9660FileEntry entry) {
+        return null == this.filter || this.filter.accept(entry);
+    }
+
+    private boolean descend(final Iso9660FileEntry directory) {
+        return null == this.filter || this.filter.descend(directory);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An {@link EntryFilter} that accepts the entries whose path matches a glob such as <code>Packages/*.rpm</code> or
+ * <code>**&#47;*.txt</code>, and only descends into directories under which a match is still possible.
+ * <p/>
+ * The pattern is split into '/'-separated segments and matched against the segments of the path, which has no
+ * leading '/' (a leading '/' in the pattern is ignored). Within a segment <code>*</code> matches any run of characters,
+ * <code>?</code> matches one character and <code>[...]</code> matches a character class, which is negated by a leading
+ * <code>!</code>; a segment of just <code>**</code> matches any number of path segments, including none.
+ */
+public final class GlobFilter implements EntryFilter {
+
+    private final String glob;
+
+    // one compiled pattern per segment, null for "**"
+    private final Pattern[] segments;
+
+    public GlobFilter(final String glob) {
+        this(glob, false);
+    }
+
+    /**
+     * @param ignoreCase true to match names regardless of case, as plain ISO9660 names are upper case
+     */
+    public GlobFilter(final String glob, final boolean ignoreCase) {
+        if (null == glob) {
+            throw new NullPointerException("glob");
+        }
+        this.glob = glob;
+
+        final String[] parts = trim(glob).split("/");
+        this.segments = new Pattern[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            if (!"**".equals(parts[i])) {
+                this.segments[i] = Pattern.compile(toRegex(parts[i]), ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+            }
+        }
+    }
+
+    public boolean accept(final Iso9660FileEntry entry) {
+        // the root has no name to match
+        if (trim(entry.getPath()).length() == 0) {
+            return false;
+        }
+        final boolean[] states = match(entry.getPath());
+        return null != states && states[this.segments.length];
+    }
+
+    public boolean descend(final Iso9660FileEntry directory) {
+        final boolean[] states = match(directory.getPath());
+        if (null == states) {
+            return false;
+        }
+        // a match is still possible below the directory if some segments of the pattern are left
+        for (int i = 0; i < this.segments.length; i++) {
+            if (states[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the path through the pattern, keeping the set of pattern positions that the segments seen so far can reach.
+     *
+     * @return the reachable positions, position <code>segments.length</code> meaning the whole pattern matched, or
+     *         null if none are
+     */
+    private boolean[] match(final String path) {
+        boolean[] states = new boolean[this.segments.length + 1];
+        states[0] = true;
+        close(states);
+
+        final String trimmed = trim(path);
+        if (trimmed.length() == 0) {
+            return states;
+        }
+
+        for (final String name : split(trimmed)) {
+            final boolean[] next = new boolean[states.length];
+            boolean any = false;
+            for (int i = 0; i < this.segments.length; i++) {
+                if (!states[i]) {
+                    continue;
+                }
+                if (null == this.segments[i]) {
+                    // "**" consumes the segment and stays put
+                    next[i] = true;
+                    any = true;
+                } else if (this.segments[i].matcher(name).matches()) {
+                    next[i + 1] = true;
+                    any = true;
+                }
+            }
+            if (!any) {
+                return null;
+            }
+            close(next);
+            states = next;
+        }
+
+        return states;
+    }
+
+    /**
+     * Adds the positions reached by letting each reachable "**" match no segments.
+     */
+    private void close(final boolean[] states) {
+        for (int i = 0; i < this.segments.length; i++) {
+            if (states[i] && null == this.segments[i]) {
+                states[i + 1] = true;
+            }
+        }
+    }
+
+    private static String trim(final String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    private static List<String> split(final String path) {
+        final List<String> names = new ArrayList<String>();
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            names.add(path.substring(start, slash));
+            start = slash + 1;
+        }
+        names.add(path.substring(start));
+        return names;
+    }
+
+    private static String toRegex(final String segment) {
+        final StringBuilder regex = new StringBuilder(segment.length() + 16);
+        int i = 0;
+        while (i < segment.length()) {
+            final char c = segment.charAt(i++);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '[' && segment.indexOf(']', classStart(segment, i) + 1) > 0) {
+                // a ']' straight after the '[' or '[!' is a member rather than the end of the class
+                final int start = classStart(segment, i);
+                final int end = segment.indexOf(']', start + 1);
+                regex.append(start > i ? "[^" : "[");
+                for (int j = start; j < end; j++) {
+                    // keep '-' for ranges, escape whatever would change the meaning of the class in a regex
+                    final char member = segment.charAt(j);
+                    if ("\\[]&^".indexOf(member) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(member);
+                }
+                regex.append(']');
+                i = end + 1;
+            } else {
+                appendLiteral(regex, c);
+            }
+        }
+        return regex.toString();
+    }
+
+    private static int classStart(final String segment, final int i) {
+        return (i < segment.length() && segment.charAt(i) == '!') ? i + 1 : i;
+    }
+
+    private static void appendLiteral(final StringBuilder regex, final char c) {
+        if ("\\.[]{}()<>*+-=!?^$|&".indexOf(c) >= 0) {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+
+    @Override
+    public String toString() {
+        return this.glob;
+    }
+}
@@ -0,0 +1,593 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Extracts the contents of a ISO9660 file system to a directory.
+ * <p/>
+ * The directory tree is created first. The files are then copied in order of their first block by a pool of workers
+ * that each take the next file in that order, so the image is read front to back however many workers there are.
+ * Files that share their extent, as in images written with deduplication, are copied once and hard linked. By default
+ * each file is copied through {@link EntryChannel#transferTo(java.nio.channels.WritableByteChannel)}, which for an
+ * image opened from a file hands the data from one file channel to the other without copying it through the heap.
+ * With {@link Options#setSparse(boolean)} the data is read through a heap buffer instead, and sectors of zeros are
+ * left as holes in sparse files. The blocks of files stored with zisofs are decompressed in parallel on a second pool
+ * of as many threads.
+ */
+public final class Iso9660Extractor {
+
+    // the size of the runs checked for zeros when writing sparse files
+    private static final int SECTOR_SIZE = Constants.DEFAULT_BLOCK_SIZE;
+
+    private static final int SPARSE_BUFFER_SIZE = 32 * SECTOR_SIZE;
+
+    private static final Comparator<Iso9660FileEntry> BY_EXTENT = new Comparator<Iso9660FileEntry>() {
+        public int compare(final Iso9660FileEntry a, final Iso9660FileEntry b) {
+            final int order = Long.compare(a.getStartBlock(), b.getStartBlock());
+            return (order != 0) ? order : Long.compare(a.getSize(), b.getSize());
+        }
+    };
+
+    private Iso9660Extractor() {
+    }
+
+    /**
+     * Extracts all the entries of <code>fileSystem</code>, or those accepted by the filter of the options, below
+     * <code>target</code>, which is created if necessary.
+     *
+     * @param options the options, or null for the defaults
+     * @return the statistics of the extraction
+     * @throws IOException if an entry could not be extracted; the remaining files are then not copied
+     */
+    public static Result extractAll(final Iso9660FileSystem fileSystem, final Path target, final Options options)
+            throws IOException {
+        final Options opts = (null != options) ? options : new Options();
+        final long start = System.nanoTime();
+        final Path root = target.toAbsolutePath().normalize();
+
+        // the entries come breadth-first, so every directory comes before its contents
+        final List<Iso9660FileEntry> directories = new ArrayList<Iso9660FileEntry>();
+        final List<Iso9660FileEntry> files = new ArrayList<Iso9660FileEntry>();
+        final Iterable<Iso9660FileEntry> entries = (null != opts.getFilter()) ? fileSystem.find(opts.getFilter())
+                : fileSystem;
+        for (final Iso9660FileEntry entry : entries) {
+            if (entry.isDirectory()) {
+                // the root is the target itself
+                if (entry.getPath().length() > 0) {
+                    directories.add(entry);
+                }
+            } else {
+                files.add(entry);
+            }
+        }
+
+        Files.createDirectories(root);
+        for (final Iso9660FileEntry directory : directories) {
+            Files.createDirectories(resolve(root, directory));
+        }
+        if (null != opts.getFilter()) {
+            // a filter such as a glob may accept files without their directories
+            final Set<Path> parents = new HashSet<Path>();
+            for (final Iso9660FileEntry file : files) {
+                final Path parent = resolve(root, file).getParent();
+                if (parents.add(parent)) {
+                    Files.createDirectories(parent);
+                }
+            }
+        }
+
+        Collections.sort(files, BY_EXTENT);
+        final Copier copier = new Copier(fileSystem, root, group(files, opts.isHardLinks()), opts, start);
+        copier.run(opts.getThreads());
+
+        // set the directory times last, as creating the files changes them; deepest first
+        if (opts.isPreserveTimes()) {
+            for (int i = directories.size() - 1; i >= 0; i--) {
+                final Iso9660FileEntry directory = directories.get(i);
+                Files.setLastModifiedTime(resolve(root, directory),
+                        FileTime.fromMillis(directory.getLastModifiedTime()));
+            }
+        }
+
+        return new Result(directories.size(), copier.files.get(), copier.links.get(), copier.bytes.get(),
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Groups the files, sorted by extent, that are to be extracted as links to the first of them: the non-empty files
+     * with the same extent.
+     */
+    private static List<Iso9660FileEntry[]> group(final List<Iso9660FileEntry> files, final boolean hardLinks) {
+        final List<Iso9660FileEntry[]> groups = new ArrayList<Iso9660FileEntry[]>(files.size());
+        int first = 0;
+        for (int i = 1; i <= files.size(); i++) {
+            if (i == files.size() || !hardLinks || !sameExtent(files.get(first), files.get(i))) {
+                groups.add(files.subList(first, i).toArray(new Iso9660FileEntry[i - first]));
+                first = i;
+            }
+        }
+        return groups;
+    }
+
+    private static boolean sameExtent(final Iso9660FileEntry a, final Iso9660FileEntry b) {
+        return a.getSize() > 0 && a.getStartBlock() == b.getStartBlock() && a.getSize() == b.getSize();
+    }
+
+    /**
+     * Returns where <code>entry</code> goes below <code>root</code>, refusing names that would escape it.
+     */
+    private static Path resolve(final Path root, final Iso9660FileEntry entry) throws IOException {
+        final Path path = root.resolve(entry.getPath()).normalize();
+        if (!path.startsWith(root)) {
+            throw new IOException("Entry '" + entry.getPath() + "' would be extracted outside of " + root);
+        }
+        return path;
+    }
+
+    /**
+     * Copies the files, each worker taking the group of files with the lowest first block that has not been taken yet.
+     * The first file of a group is copied and the others are linked to it.
+     */
+    private static final class Copier implements Runnable {
+
+        private final Iso9660FileSystem fileSystem;
+        private final Path root;
+        private final List<Iso9660FileEntry[]> groups;
+        private final Options options;
+        private final long start;
+
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong links = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+        // decompresses the blocks of zisofs files, null to decompress them on the copying thread
+        private ExecutorService decompressor;
+
+        Copier(final Iso9660FileSystem fileSystem, final Path root, final List<Iso9660FileEntry[]> groups,
+               final Options options, final long start) {
+            this.fileSystem = fileSystem;
+            this.root = root;
+            this.groups = groups;
+            this.options = options;
+            this.start = start;
+        }
+
+        void run(final int threads) throws IOException {
+            if (threads > 1) {
+                for (final Iso9660FileEntry[] group : this.groups) {
+                    if (group[0].isCompressed()) {
+                        this.decompressor = Executors.newFixedThreadPool(threads);
+                        break;
+                    }
+                }
+            }
+            try {
+                runWorkers(Math.min(threads, this.groups.size()));
+            } finally {
+                if (null != this.decompressor) {
+                    this.decompressor.shutdownNow();
+                }
+            }
+        }
+
+        private void runWorkers(final int workers) throws IOException {
+            if (workers <= 1) {
+                run();
+            } else {
+                final ExecutorService executor = Executors.newFixedThreadPool(workers);
+                try {
+                    final List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+                    for (int i = 0; i < workers; i++) {
+                        futures.add(executor.submit(this));
+                    }
+                    for (final Future<?> future : futures) {
+                        try {
+                            future.get();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            this.failure.compareAndSet(null, new InterruptedIOException());
+                        } catch (ExecutionException ex) {
+                            this.failure.compareAndSet(null, new IOException(ex.getCause()));
+                        }
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+
+            final IOException ex = this.failure.get();
+            if (null != ex) {
+                throw ex;
+            }
+        }
+
+        public void run() {
+            final ByteBuffer buffer = this.options.isSparse() ? ByteBuffer.allocate(SPARSE_BUFFER_SIZE) : null;
+            int i;
+            while (null == this.failure.get() && (i = this.next.getAndIncrement()) < this.groups.size()) {
+                final Iso9660FileEntry[] group = this.groups.get(i);
+                try {
+                    final Path first = resolve(this.root, group[0]);
+                    extracted(group[0], copy(group[0], first, buffer));
+                    for (int j = 1; j < group.length; j++) {
+                        extracted(group[j], link(group[j], first, buffer));
+                    }
+                } catch (IOException ex) {
+                    this.failure.compareAndSet(null, ex);
+                }
+            }
+        }
+
+        private void extracted(final Iso9660FileEntry entry, final long copied) {
+            final long totalFiles = this.files.incrementAndGet();
+            final long totalBytes = this.bytes.addAndGet(copied);
+            if (null != this.options.getProgressListener()) {
+                this.options.getProgressListener().extracted(entry, totalFiles, totalBytes,
+                        System.nanoTime() - this.start);
+            }
+        }
+
+        /**
+         * Extracts <code>entry</code> as a hard link to <code>existing</code>, or copies it if the file system does not
+         * support that.
+         *
+         * @return the number of bytes copied, 0 if the entry was linked
+         */
+        private long link(final Iso9660FileEntry entry, final Path existing, final ByteBuffer buffer)
+                throws IOException {
+            final Path path = resolve(this.root, entry);
+            if (this.options.isOverwrite()) {
+                Files.deleteIfExists(path);
+            }
+            try {
+                Files.createLink(path, existing);
+            } catch (FileAlreadyExistsException ex) {
+                throw new IOException("Not overwriting " + path, ex);
+            } catch (UnsupportedOperationException ex) {
+                return copy(entry, path, buffer);
+            } catch (FileSystemException ex) {
+                // e.g. too many links to the file
+                return copy(entry, path, buffer);
+            }
+            // the times belong to the file, which already has those of the first entry
+            this.links.incrementAndGet();
+            return 0;
+        }
+
+        /**
+         * Copies <code>entry</code> to <code>path</code>, leaving holes for its zero sectors if <code>buffer</code> is
+         * given and transferring it as a whole otherwise.
+         *
+         * @return the number of bytes copied
+         */
+        private long copy(final Iso9660FileEntry entry, final Path path, final ByteBuffer buffer) throws IOException {
+            final Set<StandardOpenOption> openOptions = EnumSet.of(StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    this.options.isOverwrite() ? StandardOpenOption.CREATE : StandardOpenOption.CREATE_NEW);
+            if (null != buffer) {
+                openOptions.add(StandardOpenOption.SPARSE);
+            }
+
+            if (this.options.isOverwrite()) {
+                // an earlier extraction may have left a hard link here, which must not be written through
+                Files.deleteIfExists(path);
+            }
+
+            final long copied;
+            final FileChannel out;
+            try {
+                out = FileChannel.open(path, openOptions);
+            } catch (FileAlreadyExistsException ex) {
+                throw new IOException("Not overwriting " + path, ex);
+            }
+            try {
+                final EntryChannel in = this.fileSystem.openChannel(entry);
+                try {
+                    if (entry.isCompressed()) {
+                        copied = in.transferTo(out, this.decompressor);
+                    } else {
+                        copied = (null != buffer) ? copySparse(in, out, buffer) : in.transferTo(out);
+                    }
+                } finally {
+                    in.close();
+                }
+            } finally {
+                out.close();
+            }
+            if (copied != entry.getSize()) {
+                throw new IOException("Copied " + copied + " of " + entry.getSize() + " bytes of '" + entry.getPath()
+                        + "', the image is truncated");
+            }
+
+            if (this.options.isPreserveTimes()) {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(entry.getLastModifiedTime()));
+            }
+            return copied;
+        }
+
+        /**
+         * Copies the runs of sectors that are not all zeros, skipping over the others so that they become holes.
+         */
+        private static long copySparse(final EntryChannel in, final FileChannel out, final ByteBuffer buffer)
+                throws IOException {
+            long position = 0;
+            int read;
+            while (true) {
+                buffer.clear();
+                read = in.read(buffer);
+                if (read <= 0) {
+                    break;
+                }
+
+                int run = -1;
+                for (int offset = 0; offset < read; offset += SECTOR_SIZE) {
+                    if (isZero(buffer, offset, Math.min(offset + SECTOR_SIZE, read))) {
+                        if (run >= 0) {
+                            write(out, buffer, run, offset, position);
+                            run = -1;
+                        }
+                    } else if (run < 0) {
+                        run = offset;
+                    }
+                }
+                if (run >= 0) {
+                    write(out, buffer, run, read, position);
+                }
+                position += read;
+            }
+
+            // a hole at the end does not make the file any longer
+            if (out.size() < position) {
+                write(out, ByteBuffer.allocate(1), 0, 1, position - 1);
+            }
+            return position;
+        }
+
+        private static boolean isZero(final ByteBuffer buffer, final int from, final int to) {
+            int i = from;
+            for (; i + 8 <= to; i += 8) {
+                if (buffer.getLong(i) != 0) {
+                    return false;
+                }
+            }
+            for (; i < to; i++) {
+                if (buffer.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void write(final FileChannel out, final ByteBuffer buffer, final int from, final int to,
+                                  final long position) throws IOException {
+            final ByteBuffer run = buffer.duplicate();
+            run.limit(to).position(from);
+            long at = position + from;
+            while (run.hasRemaining()) {
+                at += out.write(run, at);
+            }
+        }
+    }
+
+    /**
+     * Is told about each file as it is extracted, for instance to report progress or throughput. It is called by the
+     * worker threads, so it must be thread safe.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param entry        the file just extracted
+         * @param files        the number of files extracted so far
+         * @param bytes        the number of bytes extracted so far
+         * @param elapsedNanos the time since the extraction started
+         */
+        void extracted(Iso9660FileEntry entry, long files, long bytes, long elapsedNanos);
+    }
+
+    /**
+     * The options of an extraction.
+     */
+    public static final class Options {
+
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        private boolean overwrite;
+
+        private boolean preserveTimes = true;
+
+        private boolean hardLinks = true;
+
+        private boolean sparse;
+
+        private EntryFilter filter;
+
+        private ProgressListener progressListener;
+
+        public int getThreads() {
+            return this.threads;
+        }
+
+        /**
+         * Sets the number of workers copying files, by default the number of processors.
+         */
+        public void setThreads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("'threads' must be > 0");
+            }
+            this.threads = threads;
+        }
+
+        public boolean isOverwrite() {
+            return this.overwrite;
+        }
+
+        /**
+         * Sets whether existing files are overwritten, by default they are not and the extraction fails instead.
+         */
+        public void setOverwrite(final boolean overwrite) {
+            this.overwrite = overwrite;
+        }
+
+        public boolean isPreserveTimes() {
+            return this.preserveTimes;
+        }
+
+        /**
+         * Sets whether the extracted files and directories get the modification times of the entries, as they do by
+         * default.
+         */
+        public void setPreserveTimes(final boolean preserveTimes) {
+            this.preserveTimes = preserveTimes;
+        }
+
+        public boolean isHardLinks() {
+            return this.hardLinks;
+        }
+
+        /**
+         * Sets whether files that share their extent are extracted once and hard linked, as they are by default. Where
+         * the target does not support hard links they are copied.
+         */
+        public void setHardLinks(final boolean hardLinks) {
+            this.hardLinks = hardLinks;
+        }
+
+        public boolean isSparse() {
+            return this.sparse;
+        }
+
+        /**
+         * Sets whether sectors of zeros are left as holes in the extracted files. By default they are not, and the data
+         * of file-backed images is transferred from channel to channel; sparse files need the data read through the
+         * heap to look at it.
+         */
+        public void setSparse(final boolean sparse) {
+            this.sparse = sparse;
+        }
+
+        public EntryFilter getFilter() {
+            return this.filter;
+        }
+
+        /**
+         * Restricts the extraction to the entries accepted by <code>filter</code>, by default all entries are
+         * extracted. The parent directories of an accepted file are created even if the filter does not accept them,
+         * but only accepted directories get the modification times of their entries.
+         */
+        public void setFilter(final EntryFilter filter) {
+            this.filter = filter;
+        }
+
+        public ProgressListener getProgressListener() {
+            return this.progressListener;
+        }
+
+        public void setProgressListener(final ProgressListener progressListener) {
+            this.progressListener = progressListener;
+        }
+    }
+
+    /**
+     * The statistics of a finished extraction.
+     */
+    public static final class Result {
+
+        private final long directories;
+        private final long files;
+        private final long links;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        Result(final long directories, final long files, final long links, final long bytes,
+               final long elapsedNanos) {
+            this.directories = directories;
+            this.files = files;
+            this.links = links;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getDirectories() {
+            return this.directories;
+        }
+
+        public long getFiles() {
+            return this.files;
+        }
+
+        /**
+         * Returns how many of the files were extracted as hard links to another file with the same extent.
+         */
+        public long getLinks() {
+            return this.links;
+        }
+
+        /**
+         * Returns the number of bytes copied, which does not include the files extracted as links.
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        /**
+         * Returns the throughput of the extraction as a whole, including creating the directories.
+         */
+        public double getBytesPerSecond() {
+            return (this.elapsedNanos > 0) ? this.bytes * 1e9 / this.elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d directories, %d files (%d linked), %d bytes in %.3f s (%.1f MB/s)",
+                    this.directories, this.files, this.links, this.bytes, this.elapsedNanos / 1e9,
+                    getBytesPerSecond() / (1024 * 1024));
+        }
+    }
+}
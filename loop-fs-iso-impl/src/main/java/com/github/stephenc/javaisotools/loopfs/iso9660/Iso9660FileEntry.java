@@ -19,6 +19,8 @@
 
 package com.github.stephenc.javaisotools.loopfs.iso9660;
 
+import java.nio.ByteBuffer;
+
 import com.github.stephenc.javaisotools.loopfs.api.FileEntry;
 
 /**
@@ -37,6 +39,14 @@ public final class Iso9660FileEntry implements FileEntry {
     private final int flags;
     private final String identifier;
 
+    // the extents of a file recorded in more than one directory record, as pairs of start block and size; null for
+    // the usual single extent
+    private final long[] extents;
+
+    // for a file stored with zisofs, the log2 of its block size and its uncompressed size; a shift of 0 otherwise
+    private final int zisofsBlockShift;
+    private final long zisofsSize;
+
     //private final int extAttributeLength;
     //private final int fileUnitSize;
     //private final int interleaveSize;
@@ -45,6 +55,10 @@ public final class Iso9660FileEntry implements FileEntry {
         this(fileSystem, null, block, pos);
     }
 
+    public Iso9660FileEntry(final Iso9660FileSystem fileSystem, final ByteBuffer block, final int pos) {
+        this(fileSystem, null, block, pos);
+    }
+
     /**
      * Initialize this instance.
      *
@@ -55,6 +69,20 @@ public final class Iso9660FileEntry implements FileEntry {
      */
     public Iso9660FileEntry(final Iso9660FileSystem fileSystem, final String parentPath,
                             final byte[] block, final int startPos) {
+        this(fileSystem, parentPath, ByteBuffer.wrap(block), startPos);
+    }
+
+    /**
+     * Initialize this instance from a directory record held in a buffer, which may be a direct or mapped buffer. The
+     * record is decoded in place using absolute indexes, the buffer's position and limit are left untouched.
+     *
+     * @param fileSystem the parent file system
+     * @param parentPath the path of the parent directory
+     * @param block      the buffer containing this file entry
+     * @param startPos   the starting position of this file entry
+     */
+    public Iso9660FileEntry(final Iso9660FileSystem fileSystem, final String parentPath,
+                            final ByteBuffer block, final int startPos) {
         this.fileSystem = fileSystem;
         this.parentPath = parentPath;
 
@@ -68,10 +96,95 @@ public final class Iso9660FileEntry implements FileEntry {
         this.flags = Util.getUInt8(block, offset + 26);
         //this.fileUnitSize = Util.getUInt8(block, offset+27);
         //this.interleaveSize = Util.getUInt8(block, offset+28);
-        this.identifier = getFileIdentifier(block, offset, isDirectory());
+        this.identifier = getFileIdentifier(fileSystem, block, offset, isDirectory());
+        this.extents = null;
+
+        final int zf = isDirectory() ? -1 : ZisofsReader.findZF(block, offset);
+        this.zisofsBlockShift = (zf < 0) ? 0 : ZisofsReader.getBlockShift(block, zf);
+        this.zisofsSize = (zf < 0) ? 0 : ZisofsReader.getUncompressedSize(block, zf);
+    }
+
+    /**
+     * Initialize this instance from fields that have already been decoded.
+     */
+    Iso9660FileEntry(final Iso9660FileSystem fileSystem, final String parentPath, final String identifier,
+                     final int entryLength, final long startSector, final long dataLength,
+                     final long lastModifiedTime, final int flags) {
+        this(fileSystem, parentPath, identifier, entryLength, startSector, dataLength, lastModifiedTime, flags, 0, 0);
     }
 
-    private String getFileIdentifier(final byte[] block, final int offset, final boolean isDir) {
+    /**
+     * Initialize this instance from fields that have already been decoded, for a file that may be stored with zisofs.
+     *
+     * @param zisofsBlockShift the log2 of the zisofs block size, or 0 if the data is not compressed
+     * @param zisofsSize       the uncompressed size of zisofs data
+     */
+    Iso9660FileEntry(final Iso9660FileSystem fileSystem, final String parentPath, final String identifier,
+                     final int entryLength, final long startSector, final long dataLength,
+                     final long lastModifiedTime, final int flags, final int zisofsBlockShift,
+                     final long zisofsSize) {
+        this.fileSystem = fileSystem;
+        this.parentPath = parentPath;
+        this.identifier = identifier;
+        this.entryLength = entryLength;
+        this.startSector = startSector;
+        this.dataLength = dataLength;
+        this.lastModifiedTime = lastModifiedTime;
+        this.flags = flags;
+        this.extents = null;
+        this.zisofsBlockShift = zisofsBlockShift;
+        this.zisofsSize = zisofsSize;
+    }
+
+    /**
+     * Initialize this instance as a copy of <code>record</code> stored with zisofs, for a Joliet record whose
+     * <code>ZF</code> entry is only found on the primary record of the same file.
+     */
+    Iso9660FileEntry(final Iso9660FileEntry record, final int zisofsBlockShift, final long zisofsSize) {
+        this.fileSystem = record.fileSystem;
+        this.parentPath = record.parentPath;
+        this.identifier = record.identifier;
+        this.entryLength = record.entryLength;
+        this.startSector = record.startSector;
+        this.dataLength = record.dataLength;
+        this.lastModifiedTime = record.lastModifiedTime;
+        this.flags = record.flags;
+        this.extents = record.extents;
+        this.zisofsBlockShift = zisofsBlockShift;
+        this.zisofsSize = zisofsSize;
+    }
+
+    /**
+     * Initialize this instance as the logical entry of a file recorded in several directory records, each giving one
+     * extent. The entry takes its name, time and flags from the first record and its size is the sum of the extents.
+     *
+     * @param first   the entry of the first directory record
+     * @param extents the extents in order, as pairs of start block and size
+     */
+    Iso9660FileEntry(final Iso9660FileEntry first, final long[] extents) {
+        this.fileSystem = first.fileSystem;
+        this.parentPath = first.parentPath;
+        this.identifier = first.identifier;
+        this.entryLength = first.entryLength;
+        this.lastModifiedTime = first.lastModifiedTime;
+        // the multi-extent flag only describes the records, the merged entry is complete
+        this.flags = first.flags & ~0x80;
+        this.startSector = extents[0];
+        long size = 0;
+        for (int i = 1; i < extents.length; i += 2) {
+            size += extents[i];
+        }
+        this.dataLength = size;
+        this.extents = (extents.length > 2) ? extents : null;
+        this.zisofsBlockShift = first.zisofsBlockShift;
+        this.zisofsSize = first.zisofsSize;
+    }
+
+    /**
+     * Decodes the file identifier of the directory record at <code>offset + 1</code>, without the version number.
+     */
+    static String getFileIdentifier(final Iso9660FileSystem fileSystem, final ByteBuffer block, final int offset,
+                                    final boolean isDir) {
         final int fidLength = Util.getUInt8(block, offset + 33);
 
         if (isDir) {
@@ -84,8 +197,16 @@ public final class Iso9660FileEntry implements FileEntry {
             }
         }
 
-        final String id = Util.getDChars(
-                block, offset + 34, fidLength, this.fileSystem.getEncoding());
+        return getFileIdentifier(block, offset, fileSystem.getEncoding());
+    }
+
+    /**
+     * Decodes the file identifier of the directory record at <code>offset + 1</code> with the given encoding, without
+     * the version number and without recognising the "." and ".." records.
+     */
+    static String getFileIdentifier(final ByteBuffer block, final int offset, final String encoding) {
+        final int fidLength = Util.getUInt8(block, offset + 33);
+        final String id = Util.getDChars(block, offset + 34, fidLength, encoding);
 
         final int sepIdx = id.indexOf(ID_SEPARATOR);
 
@@ -105,16 +226,15 @@ public final class Iso9660FileEntry implements FileEntry {
             return "";
         }
 
-        StringBuffer buf = new StringBuffer();
-
-        if (null != this.parentPath) {
-            buf.append(this.parentPath);
+        if (null == this.parentPath) {
+            return isDirectory() ? this.identifier + '/' : this.identifier;
         }
 
-        buf.append(getName());
+        final StringBuilder buf = new StringBuilder(this.parentPath.length() + this.identifier.length() + 1);
+        buf.append(this.parentPath).append(this.identifier);
 
         if (isDirectory()) {
-            buf.append("/");
+            buf.append('/');
         }
 
         return buf.toString();
@@ -128,10 +248,43 @@ public final class Iso9660FileEntry implements FileEntry {
         return (this.flags & 0x03) != 0;
     }
 
+    /**
+     * Returns the size of the data, uncompressed for a file stored with zisofs.
+     */
     public long getSize() {
+        return isCompressed() ? this.zisofsSize : this.dataLength;
+    }
+
+    /**
+     * Returns the number of bytes the data takes up in the image, which for a file stored with zisofs is its
+     * compressed size.
+     */
+    public long getStoredSize() {
         return this.dataLength;
     }
 
+    /**
+     * Returns true if the data is stored compressed with zisofs, as announced by a Rock Ridge <code>ZF</code> entry.
+     * Reads through the file system decompress it.
+     */
+    public boolean isCompressed() {
+        return this.zisofsBlockShift != 0;
+    }
+
+    /**
+     * Returns the log2 of the zisofs block size, or 0 if the data is not compressed.
+     */
+    int getZisofsBlockShift() {
+        return this.zisofsBlockShift;
+    }
+
+    /**
+     * Returns the file flags. See section 9.1.6.
+     */
+    int getFlags() {
+        return this.flags;
+    }
+
     /**
      * Returns the block number where this entry starts.
      */
@@ -139,6 +292,76 @@ public final class Iso9660FileEntry implements FileEntry {
         return this.startSector;
     }
 
+    /**
+     * Returns the number of extents holding this entry's data. Files larger than 4GB, and some others, are recorded
+     * as several directory records of the same name, each giving one extent; they are merged into a single entry.
+     */
+    public int getExtentCount() {
+        return (null == this.extents) ? 1 : this.extents.length / 2;
+    }
+
+    /**
+     * Returns the block number where the given extent starts.
+     */
+    public long getExtentStartBlock(final int extent) {
+        if (null == this.extents) {
+            checkExtent(extent);
+            return this.startSector;
+        }
+        return this.extents[2 * extent];
+    }
+
+    /**
+     * Returns the size of the given extent in bytes.
+     */
+    public long getExtentSize(final int extent) {
+        if (null == this.extents) {
+            checkExtent(extent);
+            return this.dataLength;
+        }
+        return this.extents[2 * extent + 1];
+    }
+
+    private static void checkExtent(final int extent) {
+        if (extent != 0) {
+            throw new IndexOutOfBoundsException("No extent " + extent);
+        }
+    }
+
+    /**
+     * Returns the position in the image of the byte at <code>offset</code> in this entry's stored data.
+     */
+    long getImagePosition(final long offset) {
+        if (null == this.extents) {
+            return this.startSector * Constants.DEFAULT_BLOCK_SIZE + offset;
+        }
+        long remaining = offset;
+        int i = 0;
+        while (i < this.extents.length - 2 && remaining >= this.extents[i + 1]) {
+            remaining -= this.extents[i + 1];
+            i += 2;
+        }
+        return this.extents[i] * Constants.DEFAULT_BLOCK_SIZE + remaining;
+    }
+
+    /**
+     * Returns the number of bytes from <code>offset</code> in this entry's stored data to the end of the extent
+     * holding it, which can be read from {@link #getImagePosition(long)} in one go.
+     */
+    long getContiguousLength(final long offset) {
+        if (null == this.extents) {
+            return this.dataLength - offset;
+        }
+        long end = 0;
+        for (int i = 1; i < this.extents.length; i += 2) {
+            end += this.extents[i];
+            if (offset < end) {
+                return end - offset;
+            }
+        }
+        return this.dataLength - offset;
+    }
+
     /**
      * Returns the size this entry takes up in the file table.
      */
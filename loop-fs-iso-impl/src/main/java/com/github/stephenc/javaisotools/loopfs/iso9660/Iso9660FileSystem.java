@@ -22,15 +22,41 @@ package com.github.stephenc.javaisotools.loopfs.iso9660;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.github.stephenc.javaisotools.loopfs.spi.AbstractBlockFileSystem;
+import com.github.stephenc.javaisotools.loopfs.spi.BufferPool;
+import com.github.stephenc.javaisotools.loopfs.spi.ReadRequest;
 import com.github.stephenc.javaisotools.loopfs.spi.SeekableInput;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputFactory;
 import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputFile;
 import com.github.stephenc.javaisotools.loopfs.spi.VolumeDescriptorSet;
 
 public class Iso9660FileSystem extends AbstractBlockFileSystem<Iso9660FileEntry> {
 
+    /**
+     * The default number of files held back by {@link #iteratorInLocationOrder()}.
+     */
+    public static final int DEFAULT_MAX_PENDING_FILES = 64 * 1024;
+
+    private volatile PathTable pathTable;
+    private volatile ZisofsExtents primaryZisofs;
+    private volatile DirectoryCache directoryCache = new DirectoryCache(DirectoryCache.DEFAULT_MAXIMUM_WEIGHT);
+    private final ZisofsPointerCache zisofsPointers = new ZisofsPointerCache(ZisofsPointerCache.DEFAULT_MAXIMUM_WEIGHT);
+    private final BufferPool bufferPool = new BufferPool(EntryInputStream.MIN_READ_AHEAD,
+            EntryInputStream.MAX_READ_AHEAD, BufferPool.DEFAULT_POOLED_PER_SIZE);
+
     public Iso9660FileSystem(File file, boolean readOnly) throws IOException {
         this(new SeekableInputFile(file), readOnly);
     }
@@ -39,6 +65,13 @@ public class Iso9660FileSystem extends AbstractBlockFileSystem<Iso9660FileEntry>
         super(seekable, readOnly, Constants.DEFAULT_BLOCK_SIZE, Constants.RESERVED_SECTORS);
     }
 
+    /**
+     * Opens an image through a pool of handles from <code>factory</code>, for inputs that cannot read concurrently.
+     */
+    public Iso9660FileSystem(SeekableInputFactory factory, boolean readOnly) throws IOException {
+        super(factory, readOnly, Constants.DEFAULT_BLOCK_SIZE, Constants.RESERVED_SECTORS);
+    }
+
     public String getEncoding() {
         return ((Iso9660VolumeDescriptorSet) getVolumeDescriptorSet()).getEncoding();
     }
@@ -48,6 +81,299 @@ public class Iso9660FileSystem extends AbstractBlockFileSystem<Iso9660FileEntry>
         return new EntryInputStream(entry, this);
     }
 
+    /**
+     * Reads many pieces of entry data at once. The requests are sorted by their position in the image and requests
+     * close to each other are merged into single large reads, so pulling hundreds of small files out of an image
+     * costs a few sequential reads rather than one seek per file. Each request's buffer holds
+     * {@link EntryReadRequest#getBytesRead()} bytes afterwards.
+     */
+    public void readEntries(List<? extends EntryReadRequest> requests) throws IOException {
+        ensureOpen();
+
+        // data spanning several extents of a file is read as one request per extent, and zisofs data is read and
+        // decompressed on its own once the batch has been read
+        List<ReadRequest> batch = null;
+        for (int i = 0; i < requests.size(); i++) {
+            final EntryReadRequest request = requests.get(i);
+            final boolean whole = null == request.getPieces() && !request.getEntry().isCompressed();
+            if (!whole && null == batch) {
+                batch = new ArrayList<ReadRequest>(requests.subList(0, i));
+            }
+            if (null != batch) {
+                if (whole) {
+                    batch.add(request);
+                } else if (null != request.getPieces()) {
+                    batch.addAll(Arrays.asList(request.getPieces()));
+                }
+            }
+        }
+
+        if (null == batch) {
+            readBatch(requests);
+            return;
+        }
+
+        readBatch(batch);
+        for (EntryReadRequest request : requests) {
+            if (request.getEntry().isCompressed()) {
+                request.decompress(this);
+            } else if (null != request.getPieces()) {
+                request.piecesRead();
+            }
+        }
+    }
+
+    /**
+     * Opens a channel over the data of the given entry, for random access or for transferring the data to another
+     * channel without copying it through the heap.
+     */
+    public EntryChannel openChannel(Iso9660FileEntry entry) {
+        ensureOpen();
+        return new EntryChannel(entry, this);
+    }
+
+    /**
+     * Opens a cursor over the records of the given directory. Unlike {@link #listChildren(Iso9660FileEntry)} the
+     * cursor does not create an entry per record, which makes it the better choice for scanning large trees.
+     */
+    public DirectoryRecordCursor openCursor(Iso9660FileEntry directory) {
+        ensureOpen();
+
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + directory.getPath());
+        }
+
+        return new DirectoryRecordCursor(this, cursorCapacity(directory.getSize()), directory.getStartBlock(),
+                directory.getSize(), directory.getPath());
+    }
+
+    /**
+     * Returns the buffer size for a cursor over a directory of the given size. Most directories fit in a single
+     * block, so do not allocate a full chunk for them; directories of unknown size are read a block at a time.
+     */
+    private static int cursorCapacity(long size) {
+        final long blocks = (size + Constants.DEFAULT_BLOCK_SIZE - 1) / Constants.DEFAULT_BLOCK_SIZE;
+        return (int) Math.min(Math.max(1, blocks) * Constants.DEFAULT_BLOCK_SIZE,
+                DirectoryRecordCursor.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns the children of the given directory, decoded from that directory's extent alone. Listings are kept in
+     * the {@link #getDirectoryCache() directory cache}, so listing a hot directory again costs no I/O or decoding.
+     */
+    public List<Iso9660FileEntry> listChildren(Iso9660FileEntry directory) throws IOException {
+        ensureOpen();
+
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + directory.getPath());
+        }
+
+        return new ArrayList<Iso9660FileEntry>(Arrays.asList(
+                getChildren(directory.getStartBlock(), directory.getSize(), directory.getPath())));
+    }
+
+    /**
+     * Returns the children of a directory, from the directory cache if possible.
+     *
+     * @param size the size of the directory extent, or -1 to take it from the directory's "." record
+     */
+    private Iso9660FileEntry[] getChildren(long block, long size, String path) throws IOException {
+        final DirectoryCache cache = this.directoryCache;
+
+        Iso9660FileEntry[] children = (null == cache) ? null : cache.get(block, path);
+
+        if (null == children) {
+            final List<Iso9660FileEntry> list = readChildren(block, size, path);
+            if (null != cache) {
+                cache.put(block, path, list);
+            }
+            children = list.toArray(new Iso9660FileEntry[list.size()]);
+        }
+
+        return children;
+    }
+
+    /**
+     * Decodes the children of a directory, bypassing the directory cache. Used for full traversals, which would
+     * otherwise push every hot listing out of the cache.
+     */
+    List<Iso9660FileEntry> readChildren(Iso9660FileEntry directory) throws IOException {
+        return readChildren(directory.getStartBlock(), directory.getSize(), directory.getPath());
+    }
+
+    private List<Iso9660FileEntry> readChildren(long block, long size, String path) throws IOException {
+        final DirectoryRecordCursor cursor = new DirectoryRecordCursor(this, cursorCapacity(size), block, size, path);
+        final List<Iso9660FileEntry> children = new ArrayList<Iso9660FileEntry>();
+
+        while (cursor.next()) {
+            children.add(cursor.toEntry());
+        }
+
+        return children;
+    }
+
+    /**
+     * Returns the cache of decoded directory listings, or null if listings are not cached.
+     */
+    public DirectoryCache getDirectoryCache() {
+        return this.directoryCache;
+    }
+
+    /**
+     * Replaces the directory cache. Pass null to disable caching of directory listings.
+     */
+    public void setDirectoryCache(DirectoryCache directoryCache) {
+        this.directoryCache = directoryCache;
+    }
+
+    /**
+     * Looks up the entry with the given path. Directories are resolved through the path table, so only the extent of
+     * the directory holding the entry is read (usually a single block) however large the image is.
+     *
+     * @param path the entry path, with or without leading and trailing separators; an empty path is the root
+     *
+     * @return the entry, or null if there is no entry with that path
+     */
+    public Iso9660FileEntry getEntry(String path) throws IOException {
+        ensureOpen();
+
+        final Iso9660VolumeDescriptorSet descriptors = loadedVolumeDescriptorSet();
+
+        final String[] segments = splitPath(path);
+        if (segments.length == 0) {
+            return descriptors.getRootEntry();
+        }
+
+        // find the directory holding the entry, then look for the entry in that directory's extent
+        final String name = segments[segments.length - 1];
+        final PathTable table = getPathTable();
+        long parentBlock;
+        String parentPath;
+
+        if (null != table) {
+            int directory = 1;
+            for (int i = 0; i < segments.length - 1 && directory != 0; i++) {
+                directory = table.getChild(directory, segments[i]);
+            }
+            if (directory == 0) {
+                return null;
+            }
+            parentBlock = table.getExtent(directory);
+            parentPath = table.getPath(directory);
+        } else {
+            Iso9660FileEntry parent = descriptors.getRootEntry();
+            for (int i = 0; i < segments.length - 1; i++) {
+                parent = findChild(parent.getStartBlock(), parent.getPath(), segments[i]);
+                if (null == parent || !parent.isDirectory()) {
+                    return null;
+                }
+            }
+            parentBlock = parent.getStartBlock();
+            parentPath = parent.getPath();
+        }
+
+        return findChild(parentBlock, parentPath, name);
+    }
+
+    static String[] splitPath(String path) {
+        final List<String> segments = new ArrayList<String>();
+        for (String segment : path.split("/")) {
+            if (segment.length() > 0) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /**
+     * Looks for the entry called <code>name</code> in the directory whose extent starts at <code>block</code>. Without
+     * a directory cache the extent is scanned one block at a time, so that the scan stops as soon as the entry is
+     * found; with one the whole listing is decoded and cached for the next lookup.
+     */
+    private Iso9660FileEntry findChild(long block, String parentPath, String name) throws IOException {
+        if (null != this.directoryCache) {
+            for (Iso9660FileEntry child : getChildren(block, -1, parentPath)) {
+                if (name.equals(child.getName())) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        // the size of the directory is only known once its first record (".") has been read
+        final DirectoryRecordCursor cursor =
+                new DirectoryRecordCursor(this, Constants.DEFAULT_BLOCK_SIZE, block, -1, parentPath);
+
+        while (cursor.next()) {
+            if (name.equals(cursor.getName())) {
+                return cursor.toEntry();
+            }
+        }
+
+        return null;
+    }
+
+    Iso9660VolumeDescriptorSet loadedVolumeDescriptorSet() throws IOException {
+        if (null == getVolumeDescriptorSet()) {
+            loadVolumeDescriptors();
+        }
+        return (Iso9660VolumeDescriptorSet) getVolumeDescriptorSet();
+    }
+
+    /**
+     * Returns the path table for the directory hierarchy in use, loading it on first use, or null if the image does not
+     * have a usable one.
+     */
+    PathTable getPathTable() throws IOException {
+        if (null == this.pathTable) {
+            synchronized (this) {
+                if (null == this.pathTable) {
+                    this.pathTable = loadPathTable();
+                }
+            }
+        }
+        return (this.pathTable.size() > 0) ? this.pathTable : null;
+    }
+
+    /**
+     * Returns the files stored with zisofs in the primary directory hierarchy, walking it on first use, when the
+     * supplementary hierarchy is the one in use. Its Joliet records have no Rock Ridge entries, so the zisofs
+     * parameters of their files are taken from the primary records with the same extent.
+     */
+    ZisofsExtents getPrimaryZisofs() throws IOException {
+        if (null == this.primaryZisofs) {
+            synchronized (this) {
+                if (null == this.primaryZisofs) {
+                    final Iso9660VolumeDescriptorSet descriptors = loadedVolumeDescriptorSet();
+                    this.primaryZisofs = descriptors.hasSupplementary()
+                            ? ZisofsExtents.scan(this, descriptors.getPrimaryRootEntry()) : ZisofsExtents.EMPTY;
+                }
+            }
+        }
+        return this.primaryZisofs;
+    }
+
+    private PathTable loadPathTable() throws IOException {
+        final Iso9660VolumeDescriptorSet descriptors = loadedVolumeDescriptorSet();
+        final long size = descriptors.getRootPathTableSize();
+        final long location = descriptors.getRootPathTableLocation();
+
+        if (size <= 0 || size > Integer.MAX_VALUE || location <= 0) {
+            return PathTable.parse(new byte[0], 0, getEncoding());
+        }
+
+        final byte[] table = new byte[(int) size];
+        final int length = readCachedData(location * Constants.DEFAULT_BLOCK_SIZE, table, 0, table.length);
+        return PathTable.parse(table, length, getEncoding());
+    }
+
+    /**
+     * Reads directory or other metadata bytes through the block cache.
+     */
+    int readMetadata(long startPos, byte[] buffer, int offset, int len) throws IOException {
+        return readCachedData(startPos, buffer, offset, len);
+    }
+
     byte[] getBytes(Iso9660FileEntry entry) throws IOException {
         if (entry.getSize() > Integer.MAX_VALUE) {
             throw new IOException("Entry too large");
@@ -56,15 +382,239 @@ public class Iso9660FileSystem extends AbstractBlockFileSystem<Iso9660FileEntry>
 
         byte[] buf = new byte[size];
 
-        readBytes(entry, 0, buf, 0, size);
+        if (entry.isDirectory()) {
+            // directories are read on every traversal, serve them through the block cache
+            long startPos = entry.getStartBlock() * Constants.DEFAULT_BLOCK_SIZE;
+            readCachedData(startPos, buf, 0, size);
+        } else {
+            readBytes(entry, 0, buf, 0, size);
+        }
 
         return buf;
     }
 
+    /**
+     * Returns the pool of read-ahead buffers shared by the streams of this file system.
+     */
+    BufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    /**
+     * Reads entry data, decompressing it if the entry is stored with zisofs. The block pointers of zisofs files are
+     * cached, so a read only costs the blocks it covers; streams and channels keep a {@link ZisofsReader} of their own
+     * instead, which also keeps the last block it decompressed.
+     */
     int readBytes(Iso9660FileEntry entry, long entryOffset, byte[] buffer, int bufferOffset, int len)
             throws IOException {
-        long startPos = (entry.getStartBlock() * Constants.DEFAULT_BLOCK_SIZE) + entryOffset;
-        return readData(startPos, buffer, bufferOffset, len);
+        if (entry.isCompressed()) {
+            final ZisofsReader reader = openZisofs(entry);
+            try {
+                return reader.read(entryOffset, buffer, bufferOffset, len);
+            } finally {
+                reader.close();
+            }
+        }
+        return readStoredBytes(entry, entryOffset, buffer, bufferOffset, len);
+    }
+
+    /**
+     * Opens a reader of the uncompressed data of an entry stored with zisofs, sharing the cached block pointers.
+     */
+    ZisofsReader openZisofs(final Iso9660FileEntry entry) {
+        return new ZisofsReader(entry, new ZisofsReader.Source() {
+            public int read(long offset, byte[] buffer, int bufferOffset, int len) throws IOException {
+                return readStoredBytes(entry, offset, buffer, bufferOffset, len);
+            }
+        }, this.zisofsPointers);
+    }
+
+    /**
+     * Reads the data as stored in the image, continuing from one extent into the next for a file recorded in several
+     * extents.
+     */
+    int readStoredBytes(Iso9660FileEntry entry, long entryOffset, byte[] buffer, int bufferOffset, int len)
+            throws IOException {
+        int done = 0;
+
+        while (done < len) {
+            final long offset = entryOffset + done;
+            final int count = (int) Math.min(len - done, entry.getContiguousLength(offset));
+            if (count <= 0) {
+                return (done > 0) ? done : -1;
+            }
+            final int read = readData(entry.getImagePosition(offset), buffer, bufferOffset + done, count);
+            if (read <= 0) {
+                return (done > 0) ? done : read;
+            }
+            done += read;
+            if (read < count) {
+                break;
+            }
+        }
+
+        return done;
+    }
+
+    /**
+     * Reads entry data into a buffer. A read stops at the end of an extent, like a short channel read.
+     */
+    int readBytes(Iso9660FileEntry entry, long entryOffset, ByteBuffer dst) throws IOException {
+        if (entry.isCompressed()) {
+            final ZisofsReader reader = openZisofs(entry);
+            try {
+                return reader.read(entryOffset, dst);
+            } finally {
+                reader.close();
+            }
+        }
+
+        final long contiguous = entry.getContiguousLength(entryOffset);
+        if (contiguous <= 0 || dst.remaining() <= contiguous) {
+            return read(entry.getImagePosition(entryOffset), dst);
+        }
+
+        final int limit = dst.limit();
+        dst.limit(dst.position() + (int) contiguous);
+        try {
+            return read(entry.getImagePosition(entryOffset), dst);
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    /**
+     * Transfers entry data to a channel. A transfer stops at the end of an extent, the caller transfers the rest.
+     */
+    long transferBytes(Iso9660FileEntry entry, long entryOffset, long count, WritableByteChannel target)
+            throws IOException {
+        if (entry.isCompressed()) {
+            final ZisofsReader reader = openZisofs(entry);
+            try {
+                return reader.transferTo(entryOffset, count, target, null);
+            } finally {
+                reader.close();
+            }
+        }
+
+        final long contiguous = entry.getContiguousLength(entryOffset);
+        return transferTo(entry.getImagePosition(entryOffset), (contiguous > 0) ? Math.min(count, contiguous) : count,
+                target);
+    }
+
+    /**
+     * Starts reading entry data at <code>entryOffset</code> into the remaining space of <code>dst</code>, without
+     * blocking the calling thread. Over a {@link com.github.stephenc.javaisotools.loopfs.spi.AsynchronousSeekableInput}
+     * such as {@link com.github.stephenc.javaisotools.loopfs.spi.SeekableInputAsynchronousFile} no thread is tied up
+     * while the read is outstanding, so many reads can overlap; other inputs, and files stored with zisofs, are read
+     * on the {@link #getAsyncExecutor() asynchronous executor}. The buffer must not be used until the read completes.
+     * <p/>
+     * Like a channel read, a read may stop short at the end of an extent, and never goes past the end of the entry.
+     *
+     * @return a future of the number of bytes read, or -1 if <code>entryOffset</code> is at or past the end of the
+     *         entry
+     */
+    public CompletableFuture<Integer> readAsync(final Iso9660FileEntry entry, final long entryOffset,
+                                                final ByteBuffer dst) {
+        ensureOpen();
+
+        if (entryOffset >= entry.getSize()) {
+            return CompletableFuture.completedFuture(-1);
+        }
+        if (!dst.hasRemaining()) {
+            return CompletableFuture.completedFuture(0);
+        }
+
+        if (entry.isCompressed()) {
+            return callAsync(new Callable<Integer>() {
+                public Integer call() throws IOException {
+                    return readBytes(entry, entryOffset, dst);
+                }
+            });
+        }
+
+        // read into a view of the buffer cut at the end of the extent, and move the buffer on once the read is done
+        final ByteBuffer view = dst.duplicate();
+        view.limit(view.position() + (int) Math.min(view.remaining(), entry.getContiguousLength(entryOffset)));
+        return readAsync(entry.getImagePosition(entryOffset), view).thenApply(new Function<Integer, Integer>() {
+            public Integer apply(final Integer read) {
+                dst.position(dst.position() + read);
+                return read;
+            }
+        });
+    }
+
+    /**
+     * Returns the entries accepted by <code>filter</code>, in the same breadth-first order as {@link #iterator()}.
+     * Directories the filter does not descend into are never read, so a targeted query only reads the directories on
+     * the way to its matches. The entries are found lazily as the result is iterated.
+     */
+    public Iterable<Iso9660FileEntry> find(final EntryFilter filter) {
+        if (null == filter) {
+            throw new NullPointerException("filter");
+        }
+        return new Iterable<Iso9660FileEntry>() {
+            public Iterator<Iso9660FileEntry> iterator() {
+                try {
+                    return new EntryIterator(Iso9660FileSystem.this, getRoot(), filter);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the entries whose path matches <code>glob</code>, see {@link GlobFilter}.
+     */
+    public Iterable<Iso9660FileEntry> find(final String glob) {
+        return find(new GlobFilter(glob));
+    }
+
+    /**
+     * Returns a stream of all the entries. The stream splits by subtree, so a {@link Stream#parallel() parallel}
+     * stream reads and processes different parts of the tree on different threads; reads of images opened from a file
+     * or a positional input take no lock, so the threads do not contend on the image either. Parallel streams have no
+     * encounter order. An {@link IOException} while reading a directory is thrown as an
+     * {@link java.io.UncheckedIOException}.
+     */
+    public Stream<Iso9660FileEntry> stream() {
+        return stream(null);
+    }
+
+    /**
+     * Returns a stream of the entries accepted by <code>filter</code>, never reading the directories it does not
+     * descend into. See {@link #stream()} and {@link #find(EntryFilter)}.
+     */
+    public Stream<Iso9660FileEntry> stream(EntryFilter filter) {
+        final Iso9660FileEntry root;
+        try {
+            root = getRoot();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return StreamSupport.stream(new EntrySpliterator(this, root, filter), false);
+    }
+
+    /**
+     * Returns an iterator of all the entries, in the order they are laid out in the image rather than in tree order.
+     * Directories are read in block order and files are returned in block order as far as a pending queue of
+     * {@link #DEFAULT_MAX_PENDING_FILES} files allows, which makes jobs that read every file (nearly) sequential.
+     */
+    public Iterator<Iso9660FileEntry> iteratorInLocationOrder() throws IOException {
+        return iteratorInLocationOrder(DEFAULT_MAX_PENDING_FILES);
+    }
+
+    /**
+     * Returns an iterator of all the entries in the order they are laid out in the image, holding back at most
+     * <code>maxPendingFiles</code> files to put them in block order.
+     */
+    public Iterator<Iso9660FileEntry> iteratorInLocationOrder(int maxPendingFiles) throws IOException {
+        if (maxPendingFiles < 0) {
+            throw new IllegalArgumentException("'maxPendingFiles' must be >= 0");
+        }
+        final Iso9660FileEntry root = getRoot();
+        return new LocationOrderIterator(this, root, getPathTable(), maxPendingFiles);
     }
 
     protected Iterator<Iso9660FileEntry> iterator(Iso9660FileEntry rootEntry) {
@@ -0,0 +1,589 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import com.github.stephenc.javaisotools.loopfs.api.LoopFileSystemException;
+
+/**
+ * A compact, read-only index of every entry of an ISO9660 file system. Entries are numbered from 0 (the root) in
+ * breadth-first order and their fields are held in parallel primitive arrays, with all names in a single UTF-8 pool;
+ * an entry costs about 30 bytes plus its name, against several hundred for an {@link Iso9660FileEntry}. Paths are not
+ * stored but rebuilt from the parent of each entry when asked for. As the children of a directory are numbered
+ * consecutively, a directory only records its first child and the number of children.
+ * <p/>
+ * An index can be {@link #save(File) saved} next to its image and {@link #load(Iso9660FileSystem, File) loaded} again
+ * later without reading any directory. A saved index records the creation time, the total number of blocks and a hash
+ * of the volume descriptors of its image, and is only loaded for an image that matches all three.
+ * <p/>
+ * An index is immutable once built and may be shared between threads.
+ */
+public final class Iso9660Index {
+
+    /**
+     * The entry number of the root directory.
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * The suffix conventionally added to the image file name to name its saved index, as in <code>image.iso.idx</code>.
+     */
+    public static final String SIDECAR_SUFFIX = ".idx";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // "ISIX"
+    private static final int MAGIC = 0x49534958;
+    private static final int VERSION = 3;
+
+    // identifies the image the index belongs to
+    private long creationTime;
+    private long totalBlocks;
+    private byte[] descriptorHash;
+
+    private int count;
+    private int[] parents;
+    // start blocks and sizes are unsigned 32 bit values
+    private int[] startBlocks;
+    private int[] sizes;
+    private long[] lastModifiedTimes;
+    private byte[] flags;
+    private byte[] entryLengths;
+    private int[] firstChildren;
+    private int[] childCounts;
+    // the name of entry i is nameOffsets[i + 1] - nameOffsets[i] bytes starting at nameOffsets[i]
+    private int[] nameOffsets;
+    private byte[] names;
+    // the extents of the files recorded in several records, which keep the multi-extent flag: their entry numbers in
+    // ascending order and their extents as pairs of start block and size
+    private int extentCount;
+    private int[] extentEntries = new int[0];
+    private long[][] extents = new long[0][];
+    // the files stored with zisofs: their entry numbers in ascending order, and their uncompressed sizes shifted left
+    // by 8 bits with the log2 of their block size in the low bits
+    private int compressedCount;
+    private int[] compressedEntries = new int[0];
+    private long[] compressedSizes = new long[0];
+
+    private Iso9660Index(int capacity, int nameCapacity) {
+        this.parents = new int[capacity];
+        this.startBlocks = new int[capacity];
+        this.sizes = new int[capacity];
+        this.lastModifiedTimes = new long[capacity];
+        this.flags = new byte[capacity];
+        this.entryLengths = new byte[capacity];
+        this.firstChildren = new int[capacity];
+        this.childCounts = new int[capacity];
+        this.nameOffsets = new int[capacity + 1];
+        this.names = new byte[nameCapacity];
+    }
+
+    /**
+     * Builds the index of a file system by reading every directory once. No {@link Iso9660FileEntry} is created along
+     * the way.
+     */
+    public static Iso9660Index build(Iso9660FileSystem fileSystem) throws IOException {
+        final Iso9660FileEntry root = fileSystem.getRoot();
+        final Iso9660Index index = new Iso9660Index(1024, 16 * 1024);
+        index.identify(fileSystem.loadedVolumeDescriptorSet());
+
+        index.add(-1, root.getStartBlock(), root.getSize(), root.getLastModifiedTime(), root.getFlags(),
+                root.getEntryLength(), root.getName());
+
+        final DirectoryRecordCursor cursor = new DirectoryRecordCursor(fileSystem,
+                DirectoryRecordCursor.DEFAULT_CHUNK_SIZE, root.getStartBlock(), root.getSize(), null);
+
+        // entries are numbered in breadth-first order, so walking them in number order visits directories level by
+        // level and appends the children of each directory as one consecutive run
+        for (int directory = 0; directory < index.count; directory++) {
+            if (!index.isDirectory(directory)) {
+                continue;
+            }
+
+            cursor.reset(index.getStartBlock(directory), index.getSize(directory), null);
+
+            index.firstChildren[directory] = index.count;
+            while (cursor.next()) {
+                index.add(directory, cursor.getStartBlock(), cursor.getStoredSize(), cursor.getLastModifiedTime(),
+                        cursor.getFlags(), cursor.getRecordLength(), cursor.getName());
+                if (cursor.getExtentCount() > 1) {
+                    index.addExtents(index.count - 1, cursor.copyExtents());
+                }
+                if (cursor.getZisofsBlockShift() != 0) {
+                    index.addCompressed(index.count - 1, cursor.getSize(), cursor.getZisofsBlockShift());
+                }
+            }
+            index.childCounts[directory] = index.count - index.firstChildren[directory];
+        }
+
+        index.trim();
+        return index;
+    }
+
+    private void identify(Iso9660VolumeDescriptorSet descriptors) {
+        this.creationTime = descriptors.getCreationTime();
+        this.totalBlocks = descriptors.getTotalBlocks();
+        this.descriptorHash = descriptors.getDescriptorHash();
+    }
+
+    /**
+     * Loads an index saved with {@link #save(File)}. The file is memory-mapped and its columns copied out in bulk, so
+     * this costs about as much as reading the file once, whatever the number of directories.
+     *
+     * @return the index, or null if the file does not exist or was saved for a different image
+     *
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    public static Iso9660Index load(Iso9660FileSystem fileSystem, File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        final MappedByteBuffer buffer;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new LoopFileSystemException("Not an index file: " + file);
+            }
+            if (buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            final Iso9660VolumeDescriptorSet descriptors = fileSystem.loadedVolumeDescriptorSet();
+            final long creationTime = buffer.getLong();
+            final long totalBlocks = buffer.getLong();
+            final byte[] descriptorHash = new byte[buffer.getInt()];
+            buffer.get(descriptorHash);
+            if (creationTime != descriptors.getCreationTime() || totalBlocks != descriptors.getTotalBlocks()
+                    || !Arrays.equals(descriptorHash, descriptors.getDescriptorHash())) {
+                return null;
+            }
+
+            final int count = buffer.getInt();
+            final int namesLength = buffer.getInt();
+            if (count < 1 || namesLength < 0 || buffer.remaining() < 34L * count + 12 + namesLength) {
+                throw new LoopFileSystemException("Corrupt index file: " + file);
+            }
+
+            final Iso9660Index index = new Iso9660Index(count, namesLength);
+            index.creationTime = creationTime;
+            index.totalBlocks = totalBlocks;
+            index.descriptorHash = descriptorHash;
+            index.count = count;
+            readInts(buffer, index.parents);
+            readInts(buffer, index.startBlocks);
+            readInts(buffer, index.sizes);
+            buffer.asLongBuffer().get(index.lastModifiedTimes);
+            buffer.position(buffer.position() + 8 * count);
+            buffer.get(index.flags);
+            buffer.get(index.entryLengths);
+            readInts(buffer, index.firstChildren);
+            readInts(buffer, index.childCounts);
+            readInts(buffer, index.nameOffsets);
+            buffer.get(index.names);
+            final int extentEntries = buffer.getInt();
+            if (extentEntries < 0 || extentEntries > count) {
+                throw new LoopFileSystemException("Corrupt index file: " + file);
+            }
+            index.extentEntries = new int[extentEntries];
+            index.extents = new long[extentEntries][];
+            for (int i = 0; i < extentEntries; i++) {
+                final int entry = buffer.getInt();
+                final long[] extents = new long[2 * buffer.getInt()];
+                buffer.asLongBuffer().get(extents);
+                buffer.position(buffer.position() + 8 * extents.length);
+                index.addExtents(entry, extents);
+            }
+            final int compressedEntries = buffer.getInt();
+            if (compressedEntries < 0 || compressedEntries > count) {
+                throw new LoopFileSystemException("Corrupt index file: " + file);
+            }
+            index.compressedEntries = new int[compressedEntries];
+            index.compressedSizes = new long[compressedEntries];
+            index.compressedCount = compressedEntries;
+            readInts(buffer, index.compressedEntries);
+            buffer.asLongBuffer().get(index.compressedSizes);
+            buffer.position(buffer.position() + 8 * compressedEntries);
+            if (buffer.hasRemaining()) {
+                throw new LoopFileSystemException("Corrupt index file: " + file);
+            }
+            return index;
+        } catch (RuntimeException ex) {
+            // a truncated or garbled file shows up as a BufferUnderflowException or a bad array size
+            throw new LoopFileSystemException("Corrupt index file: " + file, ex);
+        }
+    }
+
+    private static void readInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    /**
+     * Loads the index saved in <code>file</code>, or if there is none for this image builds the index and saves it
+     * there for next time.
+     */
+    public static Iso9660Index loadOrBuild(Iso9660FileSystem fileSystem, File file) throws IOException {
+        Iso9660Index index = load(fileSystem, file);
+        if (null == index) {
+            index = build(fileSystem);
+            index.save(file);
+        }
+        return index;
+    }
+
+    /**
+     * Saves the index. The file is written under a temporary name and then renamed, so that a reader never sees a
+     * partly written index where the file system can rename atomically.
+     */
+    public void save(File file) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        final File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(this.creationTime);
+                out.writeLong(this.totalBlocks);
+                out.writeInt(this.descriptorHash.length);
+                out.write(this.descriptorHash);
+                out.writeInt(this.count);
+                out.writeInt(this.names.length);
+                writeInts(out, this.parents);
+                writeInts(out, this.startBlocks);
+                writeInts(out, this.sizes);
+                for (long time : this.lastModifiedTimes) {
+                    out.writeLong(time);
+                }
+                out.write(this.flags);
+                out.write(this.entryLengths);
+                writeInts(out, this.firstChildren);
+                writeInts(out, this.childCounts);
+                writeInts(out, this.nameOffsets);
+                out.write(this.names);
+                out.writeInt(this.extentCount);
+                for (int i = 0; i < this.extentCount; i++) {
+                    out.writeInt(this.extentEntries[i]);
+                    out.writeInt(this.extents[i].length / 2);
+                    for (long value : this.extents[i]) {
+                        out.writeLong(value);
+                    }
+                }
+                out.writeInt(this.compressedCount);
+                for (int i = 0; i < this.compressedCount; i++) {
+                    out.writeInt(this.compressedEntries[i]);
+                }
+                for (int i = 0; i < this.compressedCount; i++) {
+                    out.writeLong(this.compressedSizes[i]);
+                }
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            // only left behind if writing or moving it failed
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private void add(int parent, long startBlock, long size, long lastModifiedTime, int flags, int entryLength,
+                     String name) {
+        if (this.count == this.parents.length) {
+            grow(this.count * 2);
+        }
+
+        final byte[] name8 = name.getBytes(UTF8);
+        final int nameOffset = this.nameOffsets[this.count];
+        if (nameOffset + name8.length > this.names.length) {
+            this.names = Arrays.copyOf(this.names, Math.max(this.names.length * 2, nameOffset + name8.length));
+        }
+        System.arraycopy(name8, 0, this.names, nameOffset, name8.length);
+
+        final int i = this.count++;
+        this.parents[i] = parent;
+        this.startBlocks[i] = (int) startBlock;
+        this.sizes[i] = (int) size;
+        this.lastModifiedTimes[i] = lastModifiedTime;
+        this.flags[i] = (byte) flags;
+        this.entryLengths[i] = (byte) entryLength;
+        this.nameOffsets[i + 1] = nameOffset + name8.length;
+    }
+
+    private void addExtents(int entry, long[] entryExtents) {
+        if (this.extentCount == this.extentEntries.length) {
+            final int capacity = Math.max(16, this.extentCount * 2);
+            this.extentEntries = Arrays.copyOf(this.extentEntries, capacity);
+            this.extents = Arrays.copyOf(this.extents, capacity);
+        }
+        this.extentEntries[this.extentCount] = entry;
+        this.extents[this.extentCount++] = entryExtents;
+    }
+
+    private void addCompressed(int entry, long size, int blockShift) {
+        if (this.compressedCount == this.compressedEntries.length) {
+            final int capacity = Math.max(16, this.compressedCount * 2);
+            this.compressedEntries = Arrays.copyOf(this.compressedEntries, capacity);
+            this.compressedSizes = Arrays.copyOf(this.compressedSizes, capacity);
+        }
+        this.compressedEntries[this.compressedCount] = entry;
+        this.compressedSizes[this.compressedCount++] = (size << 8) | blockShift;
+    }
+
+    /**
+     * Returns the uncompressed size and block shift of an entry stored with zisofs, packed as in
+     * {@link #compressedSizes}, or -1.
+     */
+    private long getCompressed(int entry) {
+        if (this.compressedCount == 0) {
+            return -1;
+        }
+        final int i = Arrays.binarySearch(this.compressedEntries, 0, this.compressedCount, entry);
+        return (i < 0) ? -1 : this.compressedSizes[i];
+    }
+
+    /**
+     * Returns the extents of an entry recorded in several records, or null.
+     */
+    private long[] getExtents(int entry) {
+        if ((this.flags[entry] & 0x80) == 0) {
+            return null;
+        }
+        final int i = Arrays.binarySearch(this.extentEntries, 0, this.extentCount, entry);
+        return (i < 0) ? null : this.extents[i];
+    }
+
+    private void grow(int capacity) {
+        this.parents = Arrays.copyOf(this.parents, capacity);
+        this.startBlocks = Arrays.copyOf(this.startBlocks, capacity);
+        this.sizes = Arrays.copyOf(this.sizes, capacity);
+        this.lastModifiedTimes = Arrays.copyOf(this.lastModifiedTimes, capacity);
+        this.flags = Arrays.copyOf(this.flags, capacity);
+        this.entryLengths = Arrays.copyOf(this.entryLengths, capacity);
+        this.firstChildren = Arrays.copyOf(this.firstChildren, capacity);
+        this.childCounts = Arrays.copyOf(this.childCounts, capacity);
+        this.nameOffsets = Arrays.copyOf(this.nameOffsets, capacity + 1);
+    }
+
+    private void trim() {
+        grow(this.count);
+        this.names = Arrays.copyOf(this.names, this.nameOffsets[this.count]);
+        this.extentEntries = Arrays.copyOf(this.extentEntries, this.extentCount);
+        this.extents = Arrays.copyOf(this.extents, this.extentCount);
+        this.compressedEntries = Arrays.copyOf(this.compressedEntries, this.compressedCount);
+        this.compressedSizes = Arrays.copyOf(this.compressedSizes, this.compressedCount);
+    }
+
+    /**
+     * Returns the number of entries, including the root.
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Returns the entry number of the parent directory, or -1 for the root.
+     */
+    public int getParent(int entry) {
+        return this.parents[entry];
+    }
+
+    public long getStartBlock(int entry) {
+        return this.startBlocks[entry] & 0xffffffffL;
+    }
+
+    /**
+     * Returns the size of the entry's data, the total of all its extents for a file recorded in several records and
+     * the uncompressed size for a file stored with zisofs.
+     */
+    public long getSize(int entry) {
+        final long compressed = getCompressed(entry);
+        if (compressed >= 0) {
+            return compressed >>> 8;
+        }
+        return getStoredSize(entry);
+    }
+
+    private long getStoredSize(int entry) {
+        final long[] entryExtents = getExtents(entry);
+        if (null != entryExtents) {
+            long size = 0;
+            for (int i = 1; i < entryExtents.length; i += 2) {
+                size += entryExtents[i];
+            }
+            return size;
+        }
+        return this.sizes[entry] & 0xffffffffL;
+    }
+
+    public long getLastModifiedTime(int entry) {
+        return this.lastModifiedTimes[entry];
+    }
+
+    /**
+     * Returns the file flags of the entry. See section 9.1.6.
+     */
+    public int getFlags(int entry) {
+        return this.flags[entry] & 0xff;
+    }
+
+    public boolean isDirectory(int entry) {
+        return (this.flags[entry] & 0x03) != 0;
+    }
+
+    /**
+     * Returns the entry number of the first child of a directory. The children are numbered consecutively.
+     */
+    public int getFirstChild(int entry) {
+        return this.firstChildren[entry];
+    }
+
+    /**
+     * Returns the number of children of a directory, 0 for a file.
+     */
+    public int getChildCount(int entry) {
+        return this.childCounts[entry];
+    }
+
+    public String getName(int entry) {
+        return new String(this.names, this.nameOffsets[entry], this.nameOffsets[entry + 1] - this.nameOffsets[entry],
+                UTF8);
+    }
+
+    /**
+     * Returns the path of the entry in the same form as {@link Iso9660FileEntry#getPath()}.
+     */
+    public String getPath(int entry) {
+        if (entry == ROOT) {
+            return "";
+        }
+
+        int depth = 0;
+        for (int i = entry; i != ROOT; i = this.parents[i]) {
+            depth++;
+        }
+
+        final int[] ancestors = new int[depth];
+        for (int i = entry, d = depth; i != ROOT; i = this.parents[i]) {
+            ancestors[--d] = i;
+        }
+
+        final StringBuilder buf = new StringBuilder();
+        for (int i : ancestors) {
+            buf.append(getName(i));
+            if (isDirectory(i)) {
+                buf.append('/');
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Looks up the entry with the given path.
+     *
+     * @param path the entry path, with or without leading and trailing separators; an empty path is the root
+     *
+     * @return the entry number, or -1 if there is no entry with that path
+     */
+    public int find(String path) {
+        int entry = ROOT;
+
+        for (String segment : Iso9660FileSystem.splitPath(path)) {
+            if (!isDirectory(entry)) {
+                return -1;
+            }
+            entry = findChild(entry, segment.getBytes(UTF8));
+            if (entry < 0) {
+                return -1;
+            }
+        }
+
+        return entry;
+    }
+
+    private int findChild(int directory, byte[] name) {
+        final int first = this.firstChildren[directory];
+        final int end = first + this.childCounts[directory];
+
+        for (int child = first; child < end; child++) {
+            final int offset = this.nameOffsets[child];
+            if (this.nameOffsets[child + 1] - offset == name.length && regionMatches(offset, name)) {
+                return child;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean regionMatches(int offset, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (this.names[offset + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates an entry for the given entry number, for example to read its contents with
+     * {@link Iso9660FileSystem#getInputStream(Iso9660FileEntry)}.
+     */
+    public Iso9660FileEntry toEntry(Iso9660FileSystem fileSystem, int entry) {
+        final int parent = this.parents[entry];
+        final long compressed = getCompressed(entry);
+        final Iso9660FileEntry fileEntry = new Iso9660FileEntry(fileSystem, (parent < 0) ? null : getPath(parent),
+                getName(entry), this.entryLengths[entry] & 0xff, getStartBlock(entry), getStoredSize(entry),
+                getLastModifiedTime(entry), getFlags(entry), (compressed < 0) ? 0 : (int) (compressed & 0xff),
+                (compressed < 0) ? 0 : compressed >>> 8);
+        final long[] entryExtents = getExtents(entry);
+        return (null == entryExtents) ? fileEntry : new Iso9660FileEntry(fileEntry, entryExtents.clone());
+    }
+}
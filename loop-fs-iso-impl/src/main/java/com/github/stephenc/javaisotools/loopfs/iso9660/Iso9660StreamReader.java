@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.github.stephenc.javaisotools.loopfs.api.LoopFileSystemException;
+
+/**
+ * Reads a ISO9660 image from an {@link InputStream} in a single forward pass, for images that arrive over a pipe or a
+ * network connection and would otherwise have to be spooled to disk first.
+ * <p/>
+ * The volume descriptors and directory extents are parsed as the stream passes them, and the entries are returned by
+ * {@link #getNextEntry()} in the order their data is laid out in the image: a directory when its extent is reached,
+ * a file when its data is, which is then read with {@link #getInputStream()}, much like a
+ * {@link java.util.zip.ZipInputStream}. Only the metadata of the entries not reached yet is held, plus a window of the
+ * most recently passed bytes, from which a directory or file laid out before one found later can still be read. An
+ * image that places data further back than the window reaches cannot be streamed and fails with an exception.
+ * <p/>
+ * When the Joliet hierarchy is the one in use, the directories of the primary hierarchy are read as well, for the
+ * Rock Ridge <code>ZF</code> entries of files stored with zisofs that Joliet records do not carry.
+ */
+public final class Iso9660StreamReader implements Closeable {
+
+    /**
+     * The default size of the window of passed bytes.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1024 * 1024;
+
+    private static final int BLOCK_SIZE = Constants.DEFAULT_BLOCK_SIZE;
+
+    private final InputStream in;
+
+    // the most recently passed bytes, position p being at index p % window.length
+    private final byte[] window;
+
+    // the number of bytes read from the stream, and the first of them that may still be in the window
+    private long position;
+    private long windowStart;
+
+    private Iso9660VolumeDescriptorSet volumeDescriptorSet;
+
+    // the entries whose extents have not been reached yet, by first block and then in the order they were found
+    private final PriorityQueue<Pending> pending;
+    private long found;
+
+    private final Set<Long> directoryBlocks = new HashSet<Long>();
+
+    // the files stored with zisofs found so far in the primary hierarchy, when the Joliet hierarchy is in use
+    private ZisofsExtents primaryZisofs = ZisofsExtents.EMPTY;
+
+    private Iso9660FileEntry current;
+    private long currentOffset;
+
+    public Iso9660StreamReader(final InputStream in) {
+        this(in, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize the number of passed bytes kept for extents found after the stream has gone by them, rounded
+     *                   up to a whole number of blocks
+     */
+    public Iso9660StreamReader(final InputStream in, final int windowSize) {
+        if (windowSize < 0) {
+            throw new IllegalArgumentException("'windowSize' must be >= 0");
+        }
+        this.in = in;
+        this.window = new byte[Math.max(1, (windowSize + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE];
+        this.pending = new PriorityQueue<Pending>(64, new Comparator<Pending>() {
+            public int compare(final Pending a, final Pending b) {
+                final int order = Long.compare(a.entry.getStartBlock(), b.entry.getStartBlock());
+                return (order != 0) ? order : Long.compare(a.sequence, b.sequence);
+            }
+        });
+    }
+
+    /**
+     * Returns the volume descriptors, reading them from the stream if no entry has been read yet.
+     */
+    public Iso9660VolumeDescriptorSet getVolumeDescriptorSet() throws IOException {
+        if (null == this.volumeDescriptorSet) {
+            final Iso9660VolumeDescriptorSet descriptors = new Iso9660VolumeDescriptorSet(null);
+            final byte[] sector = new byte[BLOCK_SIZE];
+            long block = Constants.RESERVED_SECTORS;
+            do {
+                readFully(block++ * BLOCK_SIZE, sector, 0, sector.length);
+            } while (!descriptors.deserialize(sector));
+
+            this.volumeDescriptorSet = descriptors;
+            add(descriptors.getRootEntry());
+            if (descriptors.hasSupplementary()) {
+                this.primaryZisofs = new ZisofsExtents();
+                add(descriptors.getPrimaryRootEntry(), true);
+            }
+        }
+        return this.volumeDescriptorSet;
+    }
+
+    /**
+     * Moves on to the entry whose extent comes next in the image, skipping whatever has not been read of the current
+     * one.
+     *
+     * @return the next entry, or null if there are no more
+     */
+    public Iso9660FileEntry getNextEntry() throws IOException {
+        getVolumeDescriptorSet();
+        this.current = null;
+
+        Pending next;
+        while (null != (next = this.pending.poll())) {
+            final Iso9660FileEntry entry = next.entry;
+            if (!entry.isDirectory()) {
+                // the primary directories holding the file's record have been read by the time its data is reached
+                this.current = this.primaryZisofs.resolve(entry);
+                this.currentOffset = 0;
+                return this.current;
+            }
+            // a directory reached twice, e.g. through a corrupt record, is only returned the first time
+            if (this.directoryBlocks.add(entry.getStartBlock())) {
+                readDirectory(entry, next.primary);
+                if (!next.primary) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a stream of the data of the entry last returned by {@link #getNextEntry()}, which is only valid until the
+     * next call. Closing it does not close the reader.
+     */
+    public InputStream getInputStream() {
+        if (null == this.current) {
+            throw new IllegalStateException("No current file entry");
+        }
+        final Iso9660FileEntry entry = this.current;
+        final ZisofsReader zisofs = entry.isCompressed() ? new ZisofsReader(entry, new ZisofsReader.Source() {
+            public int read(long offset, byte[] buffer, int bufferOffset, int len) throws IOException {
+                checkCurrent(entry);
+                return readStored(entry, offset, buffer, bufferOffset, len);
+            }
+        }, null) : null;
+
+        return new InputStream() {
+            // reused by single byte reads
+            private final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return (read(this.single, 0, 1) == 1) ? (this.single[0] & 0xff) : -1;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                checkCurrent(entry);
+                final long remaining = entry.getSize() - Iso9660StreamReader.this.currentOffset;
+                if (remaining <= 0) {
+                    return -1;
+                }
+                if (len == 0) {
+                    return 0;
+                }
+                final long offset = Iso9660StreamReader.this.currentOffset;
+                final int count = (int) Math.min(len, remaining);
+                final int read = (null != zisofs) ? zisofs.read(offset, b, off, count)
+                        : readStored(entry, offset, b, off, count);
+                Iso9660StreamReader.this.currentOffset += read;
+                return read;
+            }
+
+            @Override
+            public int available() {
+                return (entry == Iso9660StreamReader.this.current)
+                        ? (int) Math.min(Integer.MAX_VALUE, entry.getSize() - Iso9660StreamReader.this.currentOffset)
+                        : 0;
+            }
+
+            @Override
+            public void close() {
+                if (null != zisofs) {
+                    zisofs.close();
+                }
+            }
+        };
+    }
+
+    private void checkCurrent(final Iso9660FileEntry entry) throws IOException {
+        if (entry != this.current) {
+            throw new IOException("The reader has moved past " + entry.getPath());
+        }
+    }
+
+    /**
+     * Reads the data of <code>entry</code> as stored in the image, up to the end of the extent holding
+     * <code>offset</code>.
+     */
+    private int readStored(final Iso9660FileEntry entry, final long offset, final byte[] buffer,
+                           final int bufferOffset, final int len) throws IOException {
+        final long contiguous = entry.getContiguousLength(offset);
+        if (contiguous <= 0) {
+            return -1;
+        }
+        return read(entry.getImagePosition(offset), buffer, bufferOffset, (int) Math.min(len, contiguous));
+    }
+
+    public void close() throws IOException {
+        this.current = null;
+        this.pending.clear();
+        this.in.close();
+    }
+
+    private void add(final Iso9660FileEntry entry) {
+        add(entry, false);
+    }
+
+    /**
+     * Queues an entry, or for the primary hierarchy alongside the Joliet one, queues a directory and notes the zisofs
+     * parameters of a file.
+     */
+    private void add(final Iso9660FileEntry entry, final boolean primary) {
+        if (!primary || entry.isDirectory()) {
+            this.pending.add(new Pending(entry, this.found++, primary));
+        } else if (entry.isCompressed()) {
+            this.primaryZisofs.add(entry.getStartBlock(), entry.getZisofsBlockShift(), entry.getSize());
+        }
+    }
+
+    /**
+     * Reads the records of <code>directory</code> and queues its children.
+     *
+     * @param primary true if the directory belongs to the primary hierarchy while the Joliet one is in use
+     */
+    private void readDirectory(final Iso9660FileEntry directory, final boolean primary) throws IOException {
+        if (directory.getSize() > Integer.MAX_VALUE) {
+            throw new LoopFileSystemException("Directory " + directory.getPath() + " is too large");
+        }
+        final byte[] extent = new byte[(int) directory.getSize()];
+        readFully(directory.getStartBlock() * BLOCK_SIZE, extent, 0, extent.length);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(extent);
+        final String encoding = this.volumeDescriptorSet.getEncoding();
+        final String path = directory.getPath();
+        int offset = 0;
+        int record = 0;
+        // the first record and the extents of a file recorded in several records, while they are being collected
+        Iso9660FileEntry first = null;
+        long[] extents = null;
+        int extentCount = 0;
+        while (offset < extent.length) {
+            final int length = Util.getUInt8(buffer, offset + 1);
+            if (length == 0) {
+                // the rest of the block is padding
+                offset = (offset / BLOCK_SIZE + 1) * BLOCK_SIZE;
+                continue;
+            }
+            if (length < 34 || (offset % BLOCK_SIZE) + length > BLOCK_SIZE) {
+                throw new LoopFileSystemException("Invalid directory record at offset " + offset + " of "
+                        + directory.getPath());
+            }
+
+            // the first two records are "." and ".."
+            if (record++ >= 2) {
+                final int flags = Util.getUInt8(buffer, offset + 26);
+                final int zf = ((flags & 0x03) != 0) ? -1 : ZisofsReader.findZF(buffer, offset);
+                final Iso9660FileEntry entry = new Iso9660FileEntry(null, path,
+                        Iso9660FileEntry.getFileIdentifier(buffer, offset, encoding), length,
+                        Util.getUInt32LE(buffer, offset + 3), Util.getUInt32LE(buffer, offset + 11),
+                        Util.getDateTime(buffer, offset + 19), flags,
+                        (zf < 0) ? 0 : ZisofsReader.getBlockShift(buffer, zf),
+                        (zf < 0) ? 0 : ZisofsReader.getUncompressedSize(buffer, zf));
+                if (null == first && (entry.getFlags() & 0x80) == 0) {
+                    add(entry, primary);
+                } else {
+                    if (null == first) {
+                        first = entry;
+                        extents = new long[8];
+                        extentCount = 0;
+                    } else if (extentCount * 2 == extents.length) {
+                        extents = Arrays.copyOf(extents, extents.length * 2);
+                    }
+                    extents[extentCount * 2] = entry.getStartBlock();
+                    extents[extentCount * 2 + 1] = entry.getStoredSize();
+                    extentCount++;
+                    if ((entry.getFlags() & 0x80) == 0) {
+                        add(new Iso9660FileEntry(first, Arrays.copyOf(extents, extentCount * 2)), primary);
+                        first = null;
+                    }
+                }
+            }
+            offset += length;
+        }
+        if (null != first) {
+            throw new LoopFileSystemException("Directory " + path + " ends before the last record of "
+                    + first.getName());
+        }
+    }
+
+    private void readFully(final long pos, final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        int done = 0;
+        while (done < length) {
+            done += read(pos + done, buffer, offset + done, length - done);
+        }
+    }
+
+    /**
+     * Reads up to <code>length</code> bytes at <code>pos</code>, from the window if the stream has passed them and
+     * from the stream otherwise, skipping forward to <code>pos</code> if need be.
+     *
+     * @return the number of bytes read, at least 1
+     */
+    private int read(final long pos, final byte[] buffer, final int offset, final int length) throws IOException {
+        if (pos < Math.max(this.windowStart, this.position - this.window.length)) {
+            throw new LoopFileSystemException("Data at " + pos + " has already been passed, only the last "
+                    + this.window.length + " bytes are kept; the image cannot be streamed with this window size");
+        }
+
+        // what lies more than a window before pos would not be kept anyway
+        if (pos - this.position > this.window.length) {
+            skip(pos - this.window.length);
+        }
+        while (this.position <= pos) {
+            fill(pos + length);
+        }
+
+        // copy out of the ring, which may wrap around
+        final int count = (int) Math.min(length, this.position - pos);
+        final int start = (int) (pos % this.window.length);
+        final int first = Math.min(count, this.window.length - start);
+        System.arraycopy(this.window, start, buffer, offset, first);
+        System.arraycopy(this.window, 0, buffer, offset + first, count - first);
+        return count;
+    }
+
+    /**
+     * Reads from the stream into the window, up to position <code>end</code> at most.
+     */
+    private void fill(final long end) throws IOException {
+        final int start = (int) (this.position % this.window.length);
+        final int length = (int) Math.min(this.window.length - start, Math.max(1, end - this.position));
+        final int read = this.in.read(this.window, start, length);
+        if (read < 0) {
+            throw new EOFException("Unexpected end of image at " + this.position);
+        }
+        this.position += read;
+    }
+
+    /**
+     * Skips the stream forward to position <code>end</code>, which leaves nothing in the window.
+     */
+    private void skip(final long end) throws IOException {
+        while (this.position < end) {
+            final long skipped = this.in.skip(end - this.position);
+            if (skipped <= 0) {
+                // not every stream can skip, read through the window instead
+                fill(end);
+            } else {
+                this.position += skipped;
+            }
+        }
+        this.windowStart = this.position;
+    }
+
+    private static final class Pending {
+
+        private final Iso9660FileEntry entry;
+        private final long sequence;
+        // a directory of the primary hierarchy, read for its zisofs entries only
+        private final boolean primary;
+
+        Pending(final Iso9660FileEntry entry, final long sequence, final boolean primary) {
+            this.entry = entry;
+            this.sequence = sequence;
+            this.primary = primary;
+        }
+    }
+}
@@ -20,6 +20,9 @@
 package com.github.stephenc.javaisotools.loopfs.iso9660;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import com.github.stephenc.javaisotools.loopfs.api.FileEntry;
 import com.github.stephenc.javaisotools.loopfs.api.LoopFileSystemException;
@@ -47,6 +50,8 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
     private String preparer;
     private String application;
     private Iso9660FileEntry rootDirectoryEntry;
+    private long rootPathTableSize;
+    private long rootPathTableLocation;
 
     // primary
     private String standardIdentifier;
@@ -62,6 +67,7 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
     private long locationOfOptionalLittleEndianPathTable;
     private long locationOfBigEndianPathTable;
     private long locationOfOptionalBigEndianPathTable;
+    private Iso9660FileEntry primaryRootEntry;
 
     // supplementary
     public String encoding = Constants.DEFAULT_ENCODING;
@@ -70,6 +76,10 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
     private boolean hasPrimary = false;
     private boolean hasSupplementary = false;
 
+    // a digest of every descriptor up to and including the terminator, identifies the image for saved indexes
+    private final MessageDigest descriptorDigest;
+    private byte[] descriptorHash;
+
     /**
      * Initialize this instance.
      *
@@ -77,11 +87,35 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
      */
     public Iso9660VolumeDescriptorSet(Iso9660FileSystem fileSystem) {
         this.isoFile = fileSystem;
+        try {
+            this.descriptorDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(ex);
+        }
     }
 
     public boolean deserialize(byte[] descriptor) throws IOException {
+        return deserialize(ByteBuffer.wrap(descriptor));
+    }
+
+    /**
+     * Load a volume descriptor from the specified buffer, which may be a direct or mapped buffer. The descriptor is
+     * decoded in place using absolute indexes.
+     *
+     * @param descriptor the volume descriptor to deserialize
+     *
+     * @return true if the volume descriptor is a terminator
+     *
+     * @throws IOException if there is an error deserializing the volume descriptor
+     */
+    public boolean deserialize(ByteBuffer descriptor) throws IOException {
         final int type = Util.getUInt8(descriptor, 1);
 
+        final ByteBuffer sector = descriptor.duplicate();
+        sector.limit(Math.min(sector.capacity(), Constants.DEFAULT_BLOCK_SIZE)).position(0);
+        this.descriptorDigest.update(sector);
+
         boolean terminator = false;
 
         switch (type) {
@@ -90,6 +124,7 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
                     throw new LoopFileSystemException("No primary volume descriptor found");
                 }
                 terminator = true;
+                this.descriptorHash = this.descriptorDigest.digest();
                 break;
             case TYPE_BOOTRECORD:
                 log.debug("Found boot record");
@@ -118,7 +153,7 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
      * @param descriptor the descriptor bytes
      * @throws IOException
      */
-    private void deserializePrimary(byte[] descriptor) throws IOException {
+    private void deserializePrimary(ByteBuffer descriptor) throws IOException {
         // according to the spec, some ISO 9660 file systems can contain multiple identical primary
         // volume descriptors
         if (this.hasPrimary) {
@@ -150,6 +185,8 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
         this.locationOfOptionalLittleEndianPathTable = Util.getUInt32LE(descriptor, 145);
         this.locationOfBigEndianPathTable = Util.getUInt32BE(descriptor, 149);
         this.locationOfOptionalBigEndianPathTable = Util.getUInt32BE(descriptor, 153);
+        // kept even when the supplementary hierarchy is the one in use, only its records carry Rock Ridge entries
+        this.primaryRootEntry = new Iso9660FileEntry(this.isoFile, descriptor, 157);
 
         this.hasPrimary = true;
     }
@@ -161,7 +198,7 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
      * @param descriptor the descriptor bytes
      * @throws IOException
      */
-    private void deserializeSupplementary(byte[] descriptor) throws IOException {
+    private void deserializeSupplementary(ByteBuffer descriptor) throws IOException {
         // for now, only recognize one supplementary descriptor
         if (this.hasSupplementary) {
             return;
@@ -191,11 +228,14 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
      * @param descriptor the volume descriptor bytes
      * @throws IOException
      */
-    private void deserializeCommon(byte[] descriptor) throws IOException {
+    private void deserializeCommon(ByteBuffer descriptor) throws IOException {
         this.systemIdentifier = Util.getAChars(descriptor, 9, 32, this.encoding);
         this.volumeIdentifier = Util.getDChars(descriptor, 41, 32, this.encoding);
         this.volumeSetIdentifier = Util.getDChars(descriptor, 191, 128, this.encoding);
         this.rootDirectoryEntry = new Iso9660FileEntry(this.isoFile, descriptor, 157);
+        // the path table that describes the same directory hierarchy (and name encoding) as the root entry
+        this.rootPathTableSize = Util.getUInt32Both(descriptor, 133);
+        this.rootPathTableLocation = Util.getUInt32LE(descriptor, 141);
     }
 
     /**
@@ -204,7 +244,7 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
      * @param descriptor the descriptor bytes
      * @throws IOException
      */
-    private void validateBlockSize(byte[] descriptor) throws IOException {
+    private void validateBlockSize(ByteBuffer descriptor) throws IOException {
         int blockSize = Util.getUInt16Both(descriptor, 129);
         if (blockSize != Constants.DEFAULT_BLOCK_SIZE) {
             throw new LoopFileSystemException("Invalid block size: " + blockSize);
@@ -243,6 +283,14 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
         return this.hasSupplementary;
     }
 
+    /**
+     * Returns the SHA-1 hash of all the volume descriptor sectors, including the terminator, or null if the
+     * terminator has not been read yet.
+     */
+    public byte[] getDescriptorHash() {
+        return (null == this.descriptorHash) ? null : this.descriptorHash.clone();
+    }
+
     public String getSystemIdentifier() {
         return this.systemIdentifier;
     }
@@ -271,6 +319,14 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
         return this.rootDirectoryEntry;
     }
 
+    /**
+     * Returns the root of the primary directory hierarchy, which is not the {@link #getRootEntry() root entry} when a
+     * supplementary descriptor is in use.
+     */
+    public Iso9660FileEntry getPrimaryRootEntry() {
+        return this.primaryRootEntry;
+    }
+
     public String getStandardIdentifier() {
         return this.standardIdentifier;
     }
@@ -307,6 +363,25 @@ public class Iso9660VolumeDescriptorSet implements VolumeDescriptorSet<Iso9660Fi
         return this.pathTableSize;
     }
 
+    /**
+     * Returns the size of the path table that belongs to the descriptor the root entry was read from. This is the
+     * supplementary descriptor's path table if one is in use, otherwise the primary one.
+     *
+     * @return the path table size in bytes
+     */
+    public long getRootPathTableSize() {
+        return this.rootPathTableSize;
+    }
+
+    /**
+     * Returns the block of the little endian path table that belongs to the descriptor the root entry was read from.
+     *
+     * @return the path table location
+     */
+    public long getRootPathTableLocation() {
+        return this.rootPathTableLocation;
+    }
+
     public long getLocationOfLittleEndianPathTable() {
         return this.locationOfLittleEndianPathTable;
     }
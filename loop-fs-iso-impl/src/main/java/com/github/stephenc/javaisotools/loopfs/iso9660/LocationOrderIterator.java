@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * An iterator of the entries in a ISO9660 file system that follows the layout of the image rather than its tree, so
+ * that a job reading every file moves through the image (nearly) sequentially.
+ * <p/>
+ * Directories are read in order of their first block, scheduled from the path table when there is one. Directory
+ * entries are returned as soon as they are found, while files wait in a bounded min-heap ordered by first block; once
+ * the heap is full the file that comes first in the image is returned to make room. As directories are usually
+ * written before any file data, a heap larger than the number of files returns every file in exact block order, and a
+ * smaller one still returns long ascending runs.
+ */
+class LocationOrderIterator implements Iterator<Iso9660FileEntry> {
+
+    private static final Comparator<Iso9660FileEntry> BY_START_BLOCK = new Comparator<Iso9660FileEntry>() {
+        public int compare(final Iso9660FileEntry a, final Iso9660FileEntry b) {
+            return (a.getStartBlock() < b.getStartBlock()) ? -1 : ((a.getStartBlock() == b.getStartBlock()) ? 0 : 1);
+        }
+    };
+
+    // the directories still to read: path table numbers sorted by extent, or, without a path table, the directories
+    // found so far
+    private final PathTable pathTable;
+    private final int[] directories;
+    private int nextDirectory;
+    private final PriorityQueue<Iso9660FileEntry> pendingDirectories;
+
+    private final PriorityQueue<Iso9660FileEntry> pendingFiles;
+    private final int maxPendingFiles;
+
+    // entries ready to be returned
+    private final ArrayDeque<Iso9660FileEntry> ready = new ArrayDeque<Iso9660FileEntry>();
+
+    private final DirectoryRecordCursor cursor;
+
+    LocationOrderIterator(final Iso9660FileSystem fileSystem, final Iso9660FileEntry rootEntry,
+                          final PathTable pathTable, final int maxPendingFiles) {
+        this.pathTable = pathTable;
+        this.maxPendingFiles = maxPendingFiles;
+        this.pendingFiles = new PriorityQueue<Iso9660FileEntry>(Math.min(maxPendingFiles, 1024) + 1, BY_START_BLOCK);
+        // the size of a directory found through the path table is not known until its "." record is read, so read a
+        // block at a time rather than reading past the end of small directories
+        this.cursor = new DirectoryRecordCursor(fileSystem, Constants.DEFAULT_BLOCK_SIZE, 0, -1, null);
+
+        this.ready.add(rootEntry);
+
+        if (null != pathTable) {
+            // sort the directory numbers (at most 16 bits) by extent, packed together into longs
+            final long[] keys = new long[pathTable.size()];
+            for (int directory = 1; directory <= keys.length; directory++) {
+                keys[directory - 1] = (pathTable.getExtent(directory) << 16) | directory;
+            }
+            Arrays.sort(keys);
+            this.directories = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                this.directories[i] = (int) (keys[i] & 0xffff);
+            }
+            this.pendingDirectories = null;
+        } else {
+            this.directories = null;
+            this.pendingDirectories = new PriorityQueue<Iso9660FileEntry>(16, BY_START_BLOCK);
+            this.pendingDirectories.add(rootEntry);
+        }
+    }
+
+    public boolean hasNext() {
+        while (this.ready.isEmpty()) {
+            try {
+                if (!readNextDirectory()) {
+                    if (this.pendingFiles.isEmpty()) {
+                        return false;
+                    }
+                    this.ready.add(this.pendingFiles.poll());
+                }
+            }
+            catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+        return true;
+    }
+
+    public Iso9660FileEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.ready.poll();
+    }
+
+    /**
+     * Reads the directory that comes next in the image.
+     *
+     * @return false if all directories have been read
+     */
+    private boolean readNextDirectory() throws IOException {
+        if (null != this.directories) {
+            if (this.nextDirectory >= this.directories.length) {
+                return false;
+            }
+            final int directory = this.directories[this.nextDirectory++];
+            this.cursor.reset(this.pathTable.getExtent(directory), -1, this.pathTable.getPath(directory));
+        } else {
+            final Iso9660FileEntry directory = this.pendingDirectories.poll();
+            if (null == directory) {
+                return false;
+            }
+            this.cursor.reset(directory);
+        }
+
+        while (this.cursor.next()) {
+            final Iso9660FileEntry child = this.cursor.toEntry();
+            if (child.isDirectory()) {
+                this.ready.add(child);
+                if (null != this.pendingDirectories) {
+                    this.pendingDirectories.add(child);
+                }
+            } else {
+                this.pendingFiles.add(child);
+                if (this.pendingFiles.size() > this.maxPendingFiles) {
+                    this.ready.add(this.pendingFiles.poll());
+                }
+            }
+        }
+
+        return true;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
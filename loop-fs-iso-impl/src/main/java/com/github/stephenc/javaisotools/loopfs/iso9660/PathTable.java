@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A decoded ISO 9660 path table (see section 9.4): every directory of the image with the block of its extent and its
+ * parent directory. Directories are numbered from 1 (the root) in path table order.
+ */
+final class PathTable {
+
+    private int count;
+    private int[] extents;
+    private int[] parents;
+    private String[] names;
+
+    // "<parent number>/<name>" -> directory number
+    private final Map<String, Integer> directories;
+
+    private PathTable(int capacity) {
+        this.extents = new int[capacity + 1];
+        this.parents = new int[capacity + 1];
+        this.names = new String[capacity + 1];
+        this.directories = new HashMap<String, Integer>(capacity * 2);
+    }
+
+    /**
+     * Decodes a little endian path table.
+     *
+     * @param table    the path table bytes
+     * @param length   the number of valid bytes in <code>table</code>
+     * @param encoding the encoding of directory identifiers
+     */
+    static PathTable parse(byte[] table, int length, String encoding) {
+        // the smallest record is 10 bytes, use that to size the arrays and grow them if we guessed wrong
+        final PathTable pathTable = new PathTable(Math.max(1, length / 10));
+
+        int offset = 0;
+        while (offset + 8 <= length) {
+            final int identifierLength = Util.getUInt8(table, offset + 1);
+            if (identifierLength == 0) {
+                break;
+            }
+
+            final int number = pathTable.count + 1;
+            final long extent = Util.getUInt32LE(table, offset + 3);
+            final int parent = Util.getUInt16LE(table, offset + 7);
+            final String name = (number == 1) ? "" : Util.getDChars(table, offset + 9, identifierLength, encoding);
+            pathTable.add(number, extent, parent, name);
+
+            // identifiers of odd length are followed by a padding byte
+            offset += 8 + identifierLength + (identifierLength & 1);
+        }
+
+        return pathTable;
+    }
+
+    private void add(int number, long extent, int parent, String name) {
+        if (number >= this.extents.length) {
+            final int capacity = this.extents.length * 2;
+            this.extents = copyOf(this.extents, capacity);
+            this.parents = copyOf(this.parents, capacity);
+            final String[] names = new String[capacity];
+            System.arraycopy(this.names, 0, names, 0, this.names.length);
+            this.names = names;
+        }
+        this.extents[number] = (int) extent;
+        this.parents[number] = parent;
+        this.names[number] = name;
+        this.count = number;
+        if (number != 1) {
+            this.directories.put(key(parent, name), number);
+        }
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        final int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    private static String key(int parent, String name) {
+        return parent + "/" + name;
+    }
+
+    /**
+     * Returns the number of directories in the table.
+     */
+    int size() {
+        return this.count;
+    }
+
+    /**
+     * Returns the block where the extent of the given directory starts.
+     */
+    long getExtent(int directory) {
+        return this.extents[directory] & 0xffffffffL;
+    }
+
+    /**
+     * Returns the number of the parent of the given directory. The root is its own parent.
+     */
+    int getParent(int directory) {
+        return this.parents[directory];
+    }
+
+    /**
+     * Returns the identifier of the given directory, the root's identifier is empty.
+     */
+    String getName(int directory) {
+        return this.names[directory];
+    }
+
+    /**
+     * Returns the path of the given directory in the same form as {@link Iso9660FileEntry#getPath()}, i.e. with a
+     * trailing separator and an empty path for the root.
+     */
+    String getPath(int directory) {
+        if (directory == 1) {
+            return "";
+        }
+        return getPath(getParent(directory)) + getName(directory) + "/";
+    }
+
+    /**
+     * Returns the number of the subdirectory <code>name</code> of <code>parent</code>, or 0 if there is none.
+     */
+    int getChild(int parent, String name) {
+        final Integer child = this.directories.get(key(parent, name));
+        return (null == child) ? 0 : child;
+    }
+}
@@ -20,6 +20,8 @@
 package com.github.stephenc.javaisotools.loopfs.iso9660;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Calendar;
 import java.util.TimeZone;
 
@@ -123,6 +125,112 @@ public final class Util {
     }
 
     public static long getStringDate(byte[] block, int pos) {
+        return getStringDate(ByteBuffer.wrap(block), pos);
+    }
+
+    public static long getDateTime(byte[] sector, int pos) {
+        int i = pos - 1;
+        return toEpochMillis(1900 + sector[i], sector[i + 1], sector[i + 2], sector[i + 3], sector[i + 4],
+                sector[i + 5], sector[i + 6]);
+    }
+
+    /*
+     * The ByteBuffer variants below decode fields in place, so directory records and descriptors can be parsed
+     * straight out of direct, mapped or cached buffers. Positions are 1-based absolute indexes into the buffer, as in
+     * the standard; the buffer's position and limit are ignored and left untouched.
+     */
+
+    /**
+     * Gets an unsigned 8-bit value LSB first. See section 7.1.1.
+     */
+    public static int getUInt8(ByteBuffer block, int pos) {
+        return LittleEndian.getUInt8(block, pos - 1);
+    }
+
+    /**
+     * Gets a signed 8-bit value LSB first. See section 7.1.2.
+     */
+    public static int getInt8(ByteBuffer block, int pos) {
+        return LittleEndian.getInt8(block, pos - 1);
+    }
+
+    /**
+     * Gets an unsigned 16-bit value LSB first. See section 7.2.1.
+     */
+    public static int getUInt16LE(ByteBuffer block, int pos) {
+        return LittleEndian.getUInt16(block, pos - 1);
+    }
+
+    /**
+     * Gets an unsigned 16-bit value MSB first. See section 7.2.2.
+     */
+    public static int getUInt16BE(ByteBuffer block, int pos) {
+        return BigEndian.getUInt16(block, pos - 1);
+    }
+
+    /**
+     * Gets an unsigned 16-bit value in both byteorders. See section 7.2.3.
+     */
+    public static int getUInt16Both(ByteBuffer block, int pos) {
+        return LittleEndian.getUInt16(block, pos - 1);
+    }
+
+    /**
+     * Gets an unsigned 32-bit value LSB first. See section 7.3.1.
+     */
+    public static long getUInt32LE(ByteBuffer block, int pos) {
+        return LittleEndian.getUInt32(block, pos - 1);
+    }
+
+    /**
+     * Gets an unsigned 32-bit value MSB first. See section 7.3.2.
+     */
+    public static long getUInt32BE(ByteBuffer block, int pos) {
+        return BigEndian.getUInt32(block, pos - 1);
+    }
+
+    /**
+     * Gets an unsigned 32-bit value in both byteorders. See section 7.3.3.
+     */
+    public static long getUInt32Both(ByteBuffer block, int pos) {
+        return LittleEndian.getUInt32(block, pos - 1);
+    }
+
+    /**
+     * Gets a string of a-characters. See section 7.4.1.
+     */
+    public static String getAChars(ByteBuffer block, int pos, int length) {
+        return decode(block, pos, length, Charset.defaultCharset());
+    }
+
+    /**
+     * Gets a string of d-characters. See section 7.4.1.
+     */
+    public static String getDChars(ByteBuffer block, int pos, int length) {
+        return decode(block, pos, length, Charset.defaultCharset());
+    }
+
+    /**
+     * Gets a string of a-characters. See section 7.4.1.
+     */
+    public static String getAChars(ByteBuffer block, int pos, int length, String encoding) {
+        return decode(block, pos, length, Charset.forName(encoding));
+    }
+
+    /**
+     * Gets a string of d-characters. See section 7.4.1.
+     */
+    public static String getDChars(ByteBuffer block, int pos, int length, String encoding) {
+        return decode(block, pos, length, Charset.forName(encoding));
+    }
+
+    private static String decode(ByteBuffer block, int pos, int length, Charset charset) {
+        final ByteBuffer chars = block.duplicate();
+        chars.limit(pos - 1 + length).position(pos - 1);
+        return charset.decode(chars).toString().trim();
+    }
+
+    public static long getStringDate(ByteBuffer block, int pos) {
         int i = pos - 1;
         Calendar cal = Calendar.getInstance();
         cal.set(Calendar.YEAR, toInt(block, i, 4));
@@ -132,31 +240,81 @@ public final class Util {
         cal.set(Calendar.MINUTE, toInt(block, (i = i + 2), 2));
         cal.set(Calendar.SECOND, toInt(block, (i = i + 2), 2));
         cal.set(Calendar.MILLISECOND, toInt(block, (i = i + 2), 2) * 10);
-        cal.setTimeZone(TimeZone.getTimeZone(getGMTpos(block[i + 2])));
+        cal.setTimeZone(TimeZone.getTimeZone(getGMTpos(block.get(i + 2))));
         return cal.getTimeInMillis();
     }
 
-    private static int toInt(byte[] block, int pos, int len) {
-        try {
-            return Integer.parseInt(new String(block, pos, len));
-        }
-        catch (Exception ex) {
-            return 0;
+    /**
+     * Parses a decimal number of <code>len</code> digits, returning 0 for anything that is not a number.
+     */
+    private static int toInt(ByteBuffer block, int pos, int len) {
+        int value = 0;
+        boolean negative = false;
+        for (int i = 0; i < len; i++) {
+            final int c = block.get(pos + i);
+            if (i == 0 && len > 1 && (c == '-' || c == '+')) {
+                negative = c == '-';
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else {
+                return 0;
+            }
         }
+        return negative ? -value : value;
     }
 
-    public static long getDateTime(byte[] sector, int pos) {
+    /**
+     * Gets a 7 byte recording date and time. See section 9.1.5.
+     */
+    public static long getDateTime(ByteBuffer sector, int pos) {
         int i = pos - 1;
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.YEAR, 1900 + sector[i]);
-        cal.set(Calendar.MONTH, sector[i + 1] - 1);
-        cal.set(Calendar.DATE, sector[i + 2]);
-        cal.set(Calendar.HOUR_OF_DAY, sector[i + 3]);
-        cal.set(Calendar.MINUTE, sector[i + 4]);
-        cal.set(Calendar.SECOND, sector[i + 5]);
-        cal.set(Calendar.MILLISECOND, 0);
-        cal.setTimeZone(TimeZone.getTimeZone(getGMTpos(sector[i + 6])));
-        return cal.getTimeInMillis();
+        return toEpochMillis(1900 + sector.get(i), sector.get(i + 1), sector.get(i + 2), sector.get(i + 3),
+                sector.get(i + 4), sector.get(i + 5), sector.get(i + 6));
+    }
+
+    /**
+     * Converts a recording date and time to milliseconds since the epoch with plain arithmetic, as this is done for
+     * every directory record read. Out of range fields roll over into the next field, the same as with a lenient
+     * {@link Calendar}.
+     *
+     * @param gmtOffset the offset from GMT in 15 minute intervals
+     */
+    static long toEpochMillis(int year, int month, int day, int hour, int minute, int second, int gmtOffset) {
+        // normalise the month first, the day count below expects 1 to 12
+        int monthIndex = month - 1;
+        year += (monthIndex >= 0) ? monthIndex / 12 : (monthIndex - 11) / 12;
+        monthIndex -= ((monthIndex >= 0) ? monthIndex / 12 : (monthIndex - 11) / 12) * 12;
+
+        final long days = daysSinceEpoch(year, monthIndex + 1) + day - 1;
+        final long seconds = ((days * 24 + hour) * 60 + minute) * 60 + second;
+
+        return (seconds - getGMTOffsetSeconds(gmtOffset)) * 1000;
+    }
+
+    /**
+     * Returns the number of days from 1970-01-01 to the first day of the given month in the proleptic Gregorian
+     * calendar.
+     */
+    private static long daysSinceEpoch(int year, int month) {
+        // count years from March so that the leap day falls at the end of the year
+        final int y = (month <= 2) ? year - 1 : year;
+        final int era = ((y >= 0) ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the GMT offset in seconds. Offsets of a day or more are treated as GMT, as {@link TimeZone} does for the
+     * zone ids this used to build.
+     */
+    private static int getGMTOffsetSeconds(int gmtOffset) {
+        final int minutes = Math.abs(gmtOffset) * 15;
+        if (minutes / 60 > 23) {
+            return 0;
+        }
+        return ((gmtOffset < 0) ? -minutes : minutes) * 60;
     }
 
     private static String getGMTpos(byte b) {
@@ -177,4 +335,4 @@ public final class Util {
 
     private Util() {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The zisofs parameters of the files of the primary directory hierarchy, keyed by the first block of their data. The
+ * <code>ZF</code> entries that mark zisofs files are Rock Ridge entries, which Joliet records do not carry; a file of
+ * the Joliet hierarchy shares its data with the primary record of the same file, so it is found here by its extent.
+ */
+final class ZisofsExtents {
+
+    /**
+     * A table without any entries, for images whose primary hierarchy is the one in use.
+     */
+    static final ZisofsExtents EMPTY = new ZisofsExtents();
+
+    // the uncompressed size shifted left by 8 bits, or'ed with the log2 of the block size
+    private final Map<Long, Long> extents = new HashMap<Long, Long>();
+
+    /**
+     * Walks the directory hierarchy below <code>root</code> and collects the files that carry a <code>ZF</code> entry.
+     */
+    static ZisofsExtents scan(final Iso9660FileSystem fileSystem, final Iso9660FileEntry root) throws IOException {
+        final ZisofsExtents table = new ZisofsExtents();
+        final DirectoryRecordCursor cursor = new DirectoryRecordCursor(fileSystem, Constants.DEFAULT_BLOCK_SIZE,
+                root.getStartBlock(), root.getSize(), null, true);
+        final ArrayDeque<long[]> directories = new ArrayDeque<long[]>();
+        // a directory reached twice, e.g. through a corrupt record, is only walked the first time
+        final Set<Long> visited = new HashSet<Long>();
+        visited.add(root.getStartBlock());
+
+        while (true) {
+            while (cursor.next()) {
+                if (cursor.isDirectory()) {
+                    if (visited.add(cursor.getStartBlock())) {
+                        directories.push(new long[]{cursor.getStartBlock(), cursor.getStoredSize()});
+                    }
+                } else if (cursor.getZisofsBlockShift() != 0) {
+                    table.add(cursor.getStartBlock(), cursor.getZisofsBlockShift(), cursor.getSize());
+                }
+            }
+            final long[] directory = directories.poll();
+            if (null == directory) {
+                return table;
+            }
+            cursor.reset(directory[0], directory[1], null);
+        }
+    }
+
+    void add(final long block, final int blockShift, final long size) {
+        this.extents.put(block, (size << 8) | blockShift);
+    }
+
+    /**
+     * Returns the uncompressed size and block shift of the file whose data starts at <code>block</code>, packed as in
+     * {@link #add(long, int, long)}, or -1 if there is no such file stored with zisofs.
+     */
+    long get(final long block) {
+        final Long packed = this.extents.get(block);
+        return (null == packed) ? -1 : packed;
+    }
+
+    /**
+     * Returns <code>entry</code> with the zisofs parameters of the primary record sharing its data, or the entry itself
+     * if it is already known to be compressed or there is no such record.
+     */
+    Iso9660FileEntry resolve(final Iso9660FileEntry entry) {
+        if (entry.isDirectory() || entry.isCompressed() || this.extents.isEmpty()) {
+            return entry;
+        }
+        final long packed = get(entry.getStartBlock());
+        return (packed < 0) ? entry : new Iso9660FileEntry(entry, (int) (packed & 0xff), packed >>> 8);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the block pointer tables of files stored with zisofs, keyed by the first block of the stored data, so
+ * that a read through a fresh {@link ZisofsReader} only costs the blocks it covers instead of reading and checking the
+ * whole table again. Each table weighs as much as its number of pointers and the least recently used tables are
+ * evicted once the total weight goes over the maximum.
+ */
+final class ZisofsPointerCache {
+
+    /**
+     * The default maximum weight, in pointers; enough for the tables of 32 GB of data in 32 KB blocks.
+     */
+    static final int DEFAULT_MAXIMUM_WEIGHT = 1024 * 1024;
+
+    private final long maximumWeight;
+
+    private final LinkedHashMap<Long, Table> tables;
+
+    private long weight;
+
+    ZisofsPointerCache(final long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("'maximumWeight' must be > 0");
+        }
+        this.maximumWeight = maximumWeight;
+        this.tables = new LinkedHashMap<Long, Table>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached pointers of the data starting at <code>block</code>, or null if they are not cached for data
+     * of this size and block size. The returned array must not be modified.
+     */
+    synchronized long[] get(final long block, final long size, final int blockShift) {
+        final Table table = this.tables.get(block);
+        if (null == table || table.size != size || table.blockShift != blockShift) {
+            return null;
+        }
+        return table.pointers;
+    }
+
+    synchronized void put(final long block, final long size, final int blockShift, final long[] pointers) {
+        if (pointers.length > this.maximumWeight) {
+            return;
+        }
+
+        final Table previous = this.tables.put(block, new Table(size, blockShift, pointers));
+        if (null != previous) {
+            this.weight -= previous.pointers.length;
+        }
+        this.weight += pointers.length;
+
+        final Iterator<Map.Entry<Long, Table>> eldest = this.tables.entrySet().iterator();
+        while (this.weight > this.maximumWeight) {
+            this.weight -= eldest.next().getValue().pointers.length;
+            eldest.remove();
+        }
+    }
+
+    private static final class Table {
+
+        private final long size;
+        private final int blockShift;
+        private final long[] pointers;
+
+        Table(final long size, final int blockShift, final long[] pointers) {
+            this.size = size;
+            this.blockShift = blockShift;
+            this.pointers = pointers;
+        }
+    }
+}
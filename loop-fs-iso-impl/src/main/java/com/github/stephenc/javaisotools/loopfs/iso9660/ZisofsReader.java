@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.github.stephenc.javaisotools.loopfs.api.LoopFileSystemException;
+
+/**
+ * Decompresses the data of a file stored with zisofs, as announced by a Rock Ridge <code>ZF</code> entry. The stored
+ * data starts with a 16 byte header and a table of block pointers, followed by the blocks, each compressed on its own
+ * with zlib; a block whose pointers are equal is all zeros. The pointer table is read once, and kept in a
+ * {@link ZisofsPointerCache} if one is given, after which any block can be decompressed by itself, so a read in the
+ * middle of a large file only decompresses the blocks it covers.
+ * <p/>
+ * A reader keeps the last block it decompressed and is not thread safe; {@link #transferTo(long, long,
+ * WritableByteChannel, Executor)} can decompress blocks on several threads.
+ */
+final class ZisofsReader {
+
+    /**
+     * Reads the stored, compressed, data of an entry.
+     */
+    interface Source {
+
+        /**
+         * Reads up to <code>len</code> bytes at <code>offset</code> in the stored data.
+         *
+         * @return the number of bytes read, or -1 at the end of the data
+         */
+        int read(long offset, byte[] buffer, int bufferOffset, int len) throws IOException;
+    }
+
+    private static final byte[] MAGIC = {(byte) 0x37, (byte) 0xe4, (byte) 0x53, (byte) 0x96, (byte) 0xc9,
+            (byte) 0xdb, (byte) 0xd6, (byte) 0x07};
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int MIN_BLOCK_SHIFT = 15;
+    private static final int MAX_BLOCK_SHIFT = 17;
+
+    // the number of blocks read and decompressed together by a transfer
+    private static final int TRANSFER_BLOCKS = 16;
+
+    private final Iso9660FileEntry entry;
+    private final Source source;
+    private final int blockShift;
+    private final long size;
+    private final ZisofsPointerCache pointerCache;
+
+    // the offsets of the compressed blocks in the stored data, one more than there are blocks
+    private long[] pointers;
+
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[0];
+    private final byte[] block;
+    private long blockNumber = -1;
+
+    /**
+     * @param pointerCache where the pointer tables are kept between readers, or null to read the table once per reader
+     */
+    ZisofsReader(final Iso9660FileEntry entry, final Source source, final ZisofsPointerCache pointerCache) {
+        if (!entry.isCompressed()) {
+            throw new IllegalArgumentException("Not a zisofs file: " + entry.getPath());
+        }
+        this.entry = entry;
+        this.source = source;
+        this.blockShift = entry.getZisofsBlockShift();
+        this.size = entry.getSize();
+        this.pointerCache = pointerCache;
+        this.block = new byte[1 << this.blockShift];
+    }
+
+    /**
+     * Looks for a zisofs <code>ZF</code> entry in the system use area of a directory record.
+     *
+     * @param record the offset of the first byte of the record
+     *
+     * @return the offset of the <code>ZF</code> entry, or -1 if the record has none that this reader can decompress
+     */
+    static int findZF(final ByteBuffer block, final int record) {
+        final int length = Util.getUInt8(block, record + 1);
+        final int nameLength = Util.getUInt8(block, record + 33);
+        // the system use area follows the name, padded to an even length
+        int pos = record + 33 + nameLength + ((nameLength & 1) == 0 ? 1 : 0);
+        final int end = record + length;
+
+        while (pos + 4 <= end) {
+            final int entryLength = Util.getUInt8(block, pos + 3);
+            if (entryLength < 4 || pos + entryLength > end) {
+                break;
+            }
+            if (block.get(pos) == 'Z' && block.get(pos + 1) == 'F' && entryLength >= 16
+                    && Util.getUInt8(block, pos + 4) == 1 && block.get(pos + 4) == 'p' && block.get(pos + 5) == 'z') {
+                final int shift = Util.getUInt8(block, pos + 8);
+                if (Util.getUInt8(block, pos + 7) == HEADER_SIZE / 4 && shift >= MIN_BLOCK_SHIFT
+                        && shift <= MAX_BLOCK_SHIFT) {
+                    return pos;
+                }
+            }
+            pos += entryLength;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the log2 of the block size given by the <code>ZF</code> entry at <code>zf</code>.
+     */
+    static int getBlockShift(final ByteBuffer block, final int zf) {
+        return Util.getUInt8(block, zf + 8);
+    }
+
+    /**
+     * Returns the uncompressed size given by the <code>ZF</code> entry at <code>zf</code>.
+     */
+    static long getUncompressedSize(final ByteBuffer block, final int zf) {
+        return Util.getUInt32LE(block, zf + 9);
+    }
+
+    /**
+     * Reads up to <code>len</code> bytes of uncompressed data at <code>offset</code>.
+     *
+     * @return the number of bytes read, or -1 at the end of the file
+     */
+    int read(final long offset, final byte[] buffer, final int bufferOffset, final int len) throws IOException {
+        if (offset >= this.size) {
+            return -1;
+        }
+
+        final int count = (int) Math.min(len, this.size - offset);
+        int done = 0;
+        while (done < count) {
+            final long pos = offset + done;
+            final int from = (int) (pos & (this.block.length - 1));
+            final int n = Math.min(count - done, decompress(pos >>> this.blockShift) - from);
+            System.arraycopy(this.block, from, buffer, bufferOffset + done, n);
+            done += n;
+        }
+        return done;
+    }
+
+    /**
+     * Reads uncompressed data at <code>offset</code> into <code>dst</code>.
+     *
+     * @return the number of bytes read, or -1 at the end of the file
+     */
+    int read(final long offset, final ByteBuffer dst) throws IOException {
+        if (offset >= this.size) {
+            return -1;
+        }
+
+        final int count = (int) Math.min(dst.remaining(), this.size - offset);
+        int done = 0;
+        while (done < count) {
+            final long pos = offset + done;
+            final int from = (int) (pos & (this.block.length - 1));
+            final int n = Math.min(count - done, decompress(pos >>> this.blockShift) - from);
+            dst.put(this.block, from, n);
+            done += n;
+        }
+        return done;
+    }
+
+    /**
+     * Writes <code>count</code> bytes of uncompressed data starting at <code>offset</code> to <code>target</code>. The
+     * blocks are read a batch at a time and, if an executor is given, decompressed on it in parallel, then written in
+     * order.
+     *
+     * @return the number of bytes written
+     */
+    long transferTo(final long offset, final long count, final WritableByteChannel target, final Executor executor)
+            throws IOException {
+        final long end = Math.min(this.size, offset + count);
+        long pos = offset;
+
+        while (pos < end) {
+            final long first = pos >>> this.blockShift;
+            final long last = Math.min((end - 1) >>> this.blockShift, first + TRANSFER_BLOCKS - 1);
+            final List<FutureTask<byte[]>> blocks = decompress(first, last, executor);
+
+            for (int i = 0; i < blocks.size(); i++) {
+                final byte[] data = get(blocks.get(i));
+                final long blockStart = (first + i) << this.blockShift;
+                final int to = (int) Math.min(data.length, end - blockStart);
+                final ByteBuffer src = ByteBuffer.wrap(data, (int) (pos - blockStart), to - (int) (pos - blockStart));
+                while (src.hasRemaining()) {
+                    if (target.write(src) <= 0) {
+                        // a non-blocking target that is full
+                        return blockStart + src.position() - offset;
+                    }
+                }
+                pos = blockStart + to;
+            }
+        }
+
+        return pos - offset;
+    }
+
+    /**
+     * Reads the compressed blocks <code>first</code> to <code>last</code> with a single read and decompresses each on
+     * the executor, or at once without one.
+     */
+    private List<FutureTask<byte[]>> decompress(final long first, final long last, final Executor executor)
+            throws IOException {
+        loadPointers();
+
+        final long start = this.pointers[(int) first];
+        final long end = this.pointers[(int) last + 1];
+        if (end - start > Integer.MAX_VALUE) {
+            throw corrupt("block " + first);
+        }
+        final byte[] data = new byte[(int) (end - start)];
+        readFully(start, data, 0, data.length);
+
+        final List<FutureTask<byte[]>> blocks = new ArrayList<FutureTask<byte[]>>((int) (last - first + 1));
+        for (long number = first; number <= last; number++) {
+            final long blockNumber = number;
+            final FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    final byte[] out = new byte[blockLength(blockNumber)];
+                    final Inflater inflater = new Inflater();
+                    try {
+                        inflate(inflater, blockNumber, data, (int) (pointers[(int) blockNumber] - start),
+                                (int) (pointers[(int) blockNumber + 1] - pointers[(int) blockNumber]), out);
+                    } finally {
+                        inflater.end();
+                    }
+                    return out;
+                }
+            });
+            if (null == executor) {
+                task.run();
+            } else {
+                executor.execute(task);
+            }
+            blocks.add(task);
+        }
+        return blocks;
+    }
+
+    private static byte[] get(final FutureTask<byte[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Decompresses block <code>number</code> into the block buffer, unless it is there already.
+     *
+     * @return the length of the block
+     */
+    private int decompress(final long number) throws IOException {
+        final int length = blockLength(number);
+        if (number == this.blockNumber) {
+            return length;
+        }
+
+        loadPointers();
+        final long start = this.pointers[(int) number];
+        final int compressedLength = (int) (this.pointers[(int) number + 1] - start);
+        if (this.compressed.length < compressedLength) {
+            this.compressed = new byte[compressedLength];
+        }
+        this.blockNumber = -1;
+        readFully(start, this.compressed, 0, compressedLength);
+        inflate(this.inflater, number, this.compressed, 0, compressedLength, this.block);
+        this.blockNumber = number;
+        return length;
+    }
+
+    private void inflate(final Inflater inflater, final long number, final byte[] data, final int offset,
+                         final int length, final byte[] out) throws IOException {
+        final int expected = blockLength(number);
+
+        if (length == 0) {
+            // a block of zeros is not stored at all
+            Arrays.fill(out, 0, expected, (byte) 0);
+            return;
+        }
+
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        int done = 0;
+        try {
+            while (done < expected && !inflater.finished()) {
+                final int n = inflater.inflate(out, done, expected - done);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                done += n;
+            }
+        } catch (DataFormatException ex) {
+            throw new LoopFileSystemException("Corrupt zisofs block " + number + " of " + this.entry.getPath(), ex);
+        }
+        if (done != expected) {
+            throw corrupt("block " + number);
+        }
+    }
+
+    private int blockLength(final long number) {
+        return (int) Math.min(this.block.length, this.size - (number << this.blockShift));
+    }
+
+    /**
+     * Reads and checks the header and the block pointer table, the first time it is needed, unless the table is
+     * cached.
+     */
+    private void loadPointers() throws IOException {
+        if (null != this.pointers) {
+            return;
+        }
+        if (null != this.pointerCache) {
+            this.pointers = this.pointerCache.get(this.entry.getStartBlock(), this.size, this.blockShift);
+            if (null != this.pointers) {
+                return;
+            }
+        }
+
+        final long blocks = (this.size + this.block.length - 1) >>> this.blockShift;
+        if (HEADER_SIZE + 4 * (blocks + 1) > Integer.MAX_VALUE) {
+            throw corrupt("pointer table");
+        }
+        final byte[] table = new byte[(int) (HEADER_SIZE + 4 * (blocks + 1))];
+        readFully(0, table, 0, table.length);
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (table[i] != MAGIC[i]) {
+                throw corrupt("header");
+            }
+        }
+        if (Util.getUInt32LE(table, 9) != this.size || Util.getUInt8(table, 14) != this.blockShift) {
+            throw corrupt("header");
+        }
+
+        final long[] offsets = new long[(int) blocks + 1];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = Util.getUInt32LE(table, HEADER_SIZE + 4 * i + 1);
+            if (offsets[i] < ((i == 0) ? table.length : offsets[i - 1]) || offsets[i] > this.entry.getStoredSize()) {
+                throw corrupt("pointer table");
+            }
+        }
+        this.pointers = offsets;
+        if (null != this.pointerCache) {
+            this.pointerCache.put(this.entry.getStartBlock(), this.size, this.blockShift, offsets);
+        }
+    }
+
+    private void readFully(final long offset, final byte[] buffer, final int bufferOffset, final int len)
+            throws IOException {
+        int done = 0;
+        while (done < len) {
+            final int read = this.source.read(offset + done, buffer, bufferOffset + done, len - done);
+            if (read <= 0) {
+                throw new LoopFileSystemException("The zisofs data of " + this.entry.getPath() + " is truncated");
+            }
+            done += read;
+        }
+    }
+
+    /**
+     * Releases the inflater.
+     */
+    void close() {
+        this.inflater.end();
+    }
+
+    private LoopFileSystemException corrupt(final String what) {
+        return new LoopFileSystemException("Corrupt zisofs " + what + " in " + this.entry.getPath());
+    }
+}
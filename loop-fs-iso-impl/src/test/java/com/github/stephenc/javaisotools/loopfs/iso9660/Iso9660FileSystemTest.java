@@ -20,11 +20,26 @@ package com.github.stephenc.javaisotools.loopfs.iso9660;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
 
+import com.github.stephenc.javaisotools.loopfs.spi.AbstractFileSystem;
+import com.github.stephenc.javaisotools.loopfs.spi.CacheStats;
+import com.github.stephenc.javaisotools.loopfs.spi.PoolStats;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInput;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputAsynchronousFile;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputFactory;
 import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputFile;
 import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputFileHadoop;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputGzip;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputHttp;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputMapped;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputPool;
 import com.google.common.collect.Iterables;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -32,11 +47,33 @@ import org.codehaus.plexus.util.IOUtil;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Tests the Iso9660 implementation.
@@ -68,6 +105,841 @@ public class Iso9660FileSystemTest {
         this.runCheck(image);
     }
 
+    @Test
+    public void mappedSmokes() throws Exception {
+        // a tiny window size forces reads across window boundaries
+        Iso9660FileSystem image = new Iso9660FileSystem(new SeekableInputMapped(new File(filePath), 1000), true);
+        this.runCheck(image);
+    }
+
+    @Test
+    public void repeatedTraversalsAreServedFromBlockCache() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        Iterables.getLast(image);
+        CacheStats first = image.getBlockCache().getStats();
+        Iterables.getLast(image);
+        CacheStats second = image.getBlockCache().getStats();
+        assertThat(second.getMissCount(), is(first.getMissCount()));
+        assertThat(second.getHitCount() > first.getHitCount(), is(true));
+        image.close();
+    }
+
+    @Test
+    public void decodesDirectoryRecordsFromDirectBuffers() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        Iso9660FileEntry root = image.iterator().next();
+        byte[] content = image.getBytes(root);
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content);
+        int offset = 0;
+        while (offset < content.length && content[offset] != 0) {
+            Iso9660FileEntry fromArray = new Iso9660FileEntry(image, root.getPath(), content, offset + 1);
+            Iso9660FileEntry fromBuffer = new Iso9660FileEntry(image, root.getPath(), direct, offset + 1);
+            assertThat(fromBuffer.getPath(), is(fromArray.getPath()));
+            assertThat(fromBuffer.getStartBlock(), is(fromArray.getStartBlock()));
+            assertThat(fromBuffer.getSize(), is(fromArray.getSize()));
+            assertThat(fromBuffer.getLastModifiedTime(), is(fromArray.getLastModifiedTime()));
+            offset += fromArray.getEntryLength();
+        }
+        assertThat(offset > 0, is(true));
+        image.close();
+    }
+
+    @Test
+    public void getEntryFindsEveryEntryByPath() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        for (Iso9660FileEntry entry : image) {
+            Iso9660FileEntry found = image.getEntry(entry.getPath());
+            assertThat(found.getPath(), is(entry.getPath()));
+            assertThat(found.getStartBlock(), is(entry.getStartBlock()));
+            assertThat(found.getSize(), is(entry.getSize()));
+        }
+        assertThat(image.getEntry("/root/b.txt").getName(), is("b.txt"));
+        assertThat(image.getEntry("root/missing.txt") == null, is(true));
+        assertThat(image.getEntry("missing/b.txt") == null, is(true));
+        image.close();
+    }
+
+    @Test
+    public void listChildrenReturnsDirectChildrenOnly() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        Iso9660FileEntry root = image.getRoot();
+        List<Iso9660FileEntry> children = image.listChildren(root);
+        assertThat(children.size(), is(1));
+        assertThat(children.get(0).getPath(), is("root/"));
+        List<Iso9660FileEntry> files = image.listChildren(children.get(0));
+        assertThat(files.size(), is(2));
+        assertThat(files.get(0).getPath(), is("root/a.txt"));
+        assertThat(files.get(1).getPath(), is("root/b.txt"));
+        image.close();
+    }
+
+    @Test
+    public void cursorDecodesTheSameRecordsAsEntries() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        for (Iso9660FileEntry directory : image) {
+            if (!directory.isDirectory()) {
+                continue;
+            }
+            List<Iso9660FileEntry> children = image.listChildren(directory);
+            DirectoryRecordCursor cursor = image.openCursor(directory);
+            for (Iso9660FileEntry child : children) {
+                assertThat(cursor.next(), is(true));
+                assertThat(cursor.getName(), is(child.getName()));
+                assertThat(cursor.getStartBlock(), is(child.getStartBlock()));
+                assertThat(cursor.getSize(), is(child.getSize()));
+                assertThat(cursor.getLastModifiedTime(), is(child.getLastModifiedTime()));
+                assertThat(cursor.isDirectory(), is(child.isDirectory()));
+                assertThat(cursor.toEntry().getPath(), is(child.getPath()));
+            }
+            assertThat(cursor.next(), is(false));
+        }
+        image.close();
+    }
+
+    @Test
+    public void indexHoldsEveryEntry() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        Iso9660Index index = Iso9660Index.build(image);
+        int count = 0;
+        for (Iso9660FileEntry entry : image) {
+            int i = index.find(entry.getPath());
+            assertThat(index.getPath(i), is(entry.getPath()));
+            assertThat(index.getName(i), is(entry.getName()));
+            assertThat(index.getStartBlock(i), is(entry.getStartBlock()));
+            assertThat(index.getSize(i), is(entry.getSize()));
+            assertThat(index.getLastModifiedTime(i), is(entry.getLastModifiedTime()));
+            assertThat(index.isDirectory(i), is(entry.isDirectory()));
+            count++;
+        }
+        assertThat(index.size(), is(count));
+        assertThat(index.find("root/c.txt"), is(-1));
+        assertThat(IOUtil.toString(image.getInputStream(index.toEntry(image, index.find("root/a.txt")))),
+                is(IOUtil.toString(image.getInputStream(image.getEntry("root/a.txt")))));
+        image.close();
+    }
+
+    @Test
+    public void savedIndexIsReloadedForTheSameImageOnly() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        File sidecar = File.createTempFile("test", Iso9660Index.SIDECAR_SUFFIX);
+        sidecar.deleteOnExit();
+        Iso9660Index built = Iso9660Index.build(image);
+        built.save(sidecar);
+        Iso9660Index loaded = Iso9660Index.load(image, sidecar);
+        assertThat(loaded.size(), is(built.size()));
+        for (int i = 0; i < built.size(); i++) {
+            assertThat(loaded.getPath(i), is(built.getPath(i)));
+            assertThat(loaded.getStartBlock(i), is(built.getStartBlock(i)));
+            assertThat(loaded.getSize(i), is(built.getSize(i)));
+            assertThat(loaded.getLastModifiedTime(i), is(built.getLastModifiedTime(i)));
+        }
+
+        // an index whose descriptor hash does not match belongs to some other image
+        RandomAccessFile file = new RandomAccessFile(sidecar, "rw");
+        file.seek(28);
+        int hashByte = file.read();
+        file.seek(28);
+        file.write(hashByte ^ 0xff);
+        file.close();
+        assertThat(Iso9660Index.load(image, sidecar) == null, is(true));
+        image.close();
+    }
+
+    @Test
+    public void hotDirectoriesAreServedFromDirectoryCache() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        image.setDirectoryCache(new DirectoryCache(10));
+        Iso9660FileEntry directory = image.getEntry("root");
+        List<Iso9660FileEntry> first = image.listChildren(directory);
+        List<Iso9660FileEntry> second = image.listChildren(directory);
+        assertThat(second, is(first));
+        assertThat(image.getEntry("root/b.txt").getStartBlock(), is(first.get(1).getStartBlock()));
+        CacheStats stats = image.getDirectoryCache().getStats();
+        // the listing of root/ is decoded once and then reused twice, next to the listing of the image root
+        assertThat(stats.getHitCount(), is(2L));
+        assertThat(stats.getWeight(), is(3L));
+
+        image.setDirectoryCache(null);
+        assertThat(image.listChildren(directory).size(), is(2));
+        image.close();
+    }
+
+    @Test
+    public void byteWiseReadsAreServedFromReadAhead() throws Exception {
+        CountingSeekableInput input = new CountingSeekableInput();
+        Iso9660FileSystem image = new Iso9660FileSystem(input, true);
+        image.setBlockCache(null);
+        Iso9660FileEntry entry = image.getEntry("root/a.txt");
+        int readsBefore = input.reads;
+
+        InputStream in = image.getInputStream(entry);
+        StringBuilder text = new StringBuilder();
+        for (int c = in.read(); c != -1; c = in.read()) {
+            text.append((char) c);
+        }
+        in.close();
+
+        assertThat(input.reads - readsBefore, is(1));
+        assertThat(text.toString(), is(IOUtil.toString(image.getInputStream(entry))));
+        image.close();
+    }
+
+    @Test
+    public void channelReadsAndTransfersEntryData() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        Iso9660FileEntry entry = image.getEntry("root/b.txt");
+        EntryChannel channel = image.openChannel(entry);
+        assertThat(channel.size(), is(entry.getSize()));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        channel.position(4);
+        assertThat(channel.read(buffer), is(3));
+        assertThat(channel.read(buffer), is(-1));
+        buffer.flip();
+        byte[] tail = new byte[buffer.remaining()];
+        buffer.get(tail);
+        assertThat(new String(tail, "US-ASCII"), is("bye"));
+
+        File target = File.createTempFile("test", ".txt");
+        target.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(target);
+        channel.position(0);
+        assertThat(channel.transferTo(out.getChannel()), is(entry.getSize()));
+        out.close();
+        channel.close();
+        assertThat(IOUtil.toString(new FileInputStream(target)), is("Goodbye"));
+        image.close();
+    }
+
+    @Test
+    public void batchReadsAreCoalesced() throws Exception {
+        CountingSeekableInput input = new CountingSeekableInput();
+        Iso9660FileSystem image = new Iso9660FileSystem(input, true);
+        image.setBlockCache(null);
+        EntryReadRequest b = new EntryReadRequest(image.getEntry("root/b.txt"));
+        EntryReadRequest a = new EntryReadRequest(image.getEntry("root/a.txt"));
+        byte[] buffer = new byte[10];
+        EntryReadRequest partial = new EntryReadRequest(image.getEntry("root/b.txt"), 4, buffer, 2, 8);
+        int readsBefore = input.reads;
+
+        image.readEntries(Arrays.asList(b, a, partial));
+
+        assertThat(input.reads - readsBefore, is(1));
+        assertThat(new String(a.getBuffer(), 0, a.getBytesRead(), "US-ASCII"),
+                is(IOUtil.toString(image.getInputStream(a.getEntry()))));
+        assertThat(new String(b.getBuffer(), 0, b.getBytesRead(), "US-ASCII"), is("Goodbye"));
+        assertThat(partial.getBytesRead(), is(3));
+        assertThat(new String(buffer, 2, 3, "US-ASCII"), is("bye"));
+        image.close();
+    }
+
+    @Test
+    public void locationOrderVisitsEveryEntryInBlockOrder() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        List<String> expected = new ArrayList<String>();
+        for (Iso9660FileEntry entry : image) {
+            expected.add(entry.getPath());
+        }
+
+        List<String> paths = new ArrayList<String>();
+        long lastFileBlock = -1;
+        for (Iterator<Iso9660FileEntry> it = image.iteratorInLocationOrder(1); it.hasNext(); ) {
+            Iso9660FileEntry entry = it.next();
+            paths.add(entry.getPath());
+            if (!entry.isDirectory()) {
+                assertTrue(entry.getStartBlock() >= lastFileBlock);
+                lastFileBlock = entry.getStartBlock();
+            }
+        }
+
+        Collections.sort(expected);
+        Collections.sort(paths);
+        assertThat(paths, is(expected));
+        image.close();
+    }
+
+    @Test
+    public void findOnlyReadsDirectoriesThatCanMatch() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+
+        List<String> paths = new ArrayList<String>();
+        for (Iso9660FileEntry entry : image.find("/root/?.txt")) {
+            paths.add(entry.getPath());
+        }
+        Collections.sort(paths);
+        assertThat(paths, is(Arrays.asList("root/a.txt", "root/b.txt")));
+
+        final List<String> descended = new ArrayList<String>();
+        final GlobFilter glob = new GlobFilter("other/**");
+        List<String> none = new ArrayList<String>();
+        for (Iso9660FileEntry entry : image.find(new EntryFilter() {
+            public boolean accept(Iso9660FileEntry entry) {
+                return glob.accept(entry);
+            }
+
+            public boolean descend(Iso9660FileEntry directory) {
+                descended.add(directory.getPath());
+                return glob.descend(directory);
+            }
+        })) {
+            none.add(entry.getPath());
+        }
+        assertThat(none.size(), is(0));
+        assertThat(descended, is(Arrays.asList("", "root/")));
+        assertThat(new GlobFilter("**/B.TXT", true).accept(image.getEntry("root/b.txt")), is(true));
+        image.close();
+    }
+
+    @Test
+    public void parallelStreamVisitsEveryEntryOnce() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        List<String> expected = new ArrayList<String>();
+        for (Iso9660FileEntry entry : image) {
+            expected.add(entry.getPath());
+        }
+
+        assertThat(image.stream().map(Iso9660FileEntry::getPath).collect(Collectors.toList()), is(expected));
+
+        Collections.sort(expected);
+        assertThat(image.stream().parallel().map(Iso9660FileEntry::getPath).sorted().collect(Collectors.toList()),
+                is(expected));
+        assertThat(image.stream(new GlobFilter("root/*")).count(), is(2L));
+        image.close();
+    }
+
+    @Test
+    public void extractorCopiesTheWholeTree() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        java.nio.file.Path target = Files.createTempDirectory("test").resolve("extracted");
+        Iso9660Extractor.Options options = new Iso9660Extractor.Options();
+        options.setThreads(2);
+
+        Iso9660Extractor.Result result = Iso9660Extractor.extractAll(image, target, options);
+
+        assertThat(result.getDirectories(), is(1L));
+        assertThat(result.getFiles(), is(2L));
+        assertThat(new String(Files.readAllBytes(target.resolve("root/b.txt")), "US-ASCII"), is("Goodbye"));
+        assertThat(Files.getLastModifiedTime(target.resolve("root/b.txt")).toMillis(),
+                is(image.getEntry("root/b.txt").getLastModifiedTime()));
+        try {
+            Iso9660Extractor.extractAll(image, target, options);
+            fail("existing files should not be overwritten");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertThat(result.getLinks(), is(0L));
+        options.setOverwrite(true);
+        options.setSparse(true);
+        assertThat(Iso9660Extractor.extractAll(image, target, options).getBytes(), is(result.getBytes()));
+        assertThat(new String(Files.readAllBytes(target.resolve("root/b.txt")), "US-ASCII"), is("Goodbye"));
+        image.close();
+    }
+
+    @Test
+    public void extractorCreatesTheDirectoriesOfFilteredFiles() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        java.nio.file.Path target = Files.createTempDirectory("test").resolve("extracted");
+        Iso9660Extractor.Options options = new Iso9660Extractor.Options();
+        // the glob accepts the file but not the directory holding it
+        options.setFilter(new GlobFilter("root/b.txt"));
+
+        Iso9660Extractor.Result result = Iso9660Extractor.extractAll(image, target, options);
+
+        assertThat(result.getDirectories(), is(0L));
+        assertThat(result.getFiles(), is(1L));
+        assertThat(new String(Files.readAllBytes(target.resolve("root/b.txt")), "US-ASCII"), is("Goodbye"));
+        assertTrue(!Files.exists(target.resolve("root/a.txt")));
+        image.close();
+    }
+
+    @Test
+    public void extractorLinksSharedExtentsAndLeavesHoles() throws Exception {
+        // data, two sectors of zeros, data and a partial sector of zeros at the end
+        byte[] contents = new byte[4 * 2048 + 100];
+        for (int i = 0; i < 2048; i++) {
+            contents[i] = (byte) ('a' + i % 26);
+            contents[3 * 2048 + i] = (byte) ('A' + i % 26);
+        }
+
+        // append the data to a copy of the image and point both a.txt and b.txt at it
+        Iso9660FileSystem reference = new Iso9660FileSystem(new File(filePath), true);
+        Iso9660FileEntry directory = reference.getEntry("root");
+        long aBlock = reference.getEntry("root/a.txt").getStartBlock();
+        long bBlock = reference.getEntry("root/b.txt").getStartBlock();
+        reference.close();
+
+        File copy = File.createTempFile("test", ".iso");
+        copy.deleteOnExit();
+        Files.copy(new File(filePath).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        RandomAccessFile raf = new RandomAccessFile(copy, "rw");
+        long block = (raf.length() + 2047) / 2048;
+        raf.seek(block * 2048);
+        raf.write(contents);
+        raf.write(new byte[(int) (2048 - contents.length % 2048)]);
+        byte[] records = new byte[(int) directory.getSize()];
+        raf.seek(directory.getStartBlock() * 2048);
+        raf.readFully(records);
+        ByteBuffer buffer = ByteBuffer.wrap(records).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset < records.length && records[offset] != 0; offset += records[offset] & 0xff) {
+            long extent = buffer.getInt(offset + 2) & 0xffffffffL;
+            if (extent == aBlock || extent == bBlock) {
+                buffer.putInt(offset + 2, (int) block).putInt(offset + 6, Integer.reverseBytes((int) block));
+                buffer.putInt(offset + 10, contents.length)
+                        .putInt(offset + 14, Integer.reverseBytes(contents.length));
+            }
+        }
+        raf.seek(directory.getStartBlock() * 2048);
+        raf.write(records);
+        raf.close();
+
+        Iso9660FileSystem image = new Iso9660FileSystem(copy, true);
+        java.nio.file.Path target = Files.createTempDirectory("test").resolve("extracted");
+        Iso9660Extractor.Options options = new Iso9660Extractor.Options();
+        options.setSparse(true);
+
+        Iso9660Extractor.Result result = Iso9660Extractor.extractAll(image, target, options);
+
+        assertThat(result.getFiles(), is(2L));
+        assertThat(result.getLinks(), is(1L));
+        assertThat(result.getBytes(), is((long) contents.length));
+        assertTrue(Files.isSameFile(target.resolve("root/a.txt"), target.resolve("root/b.txt")));
+        assertThat(Files.size(target.resolve("root/a.txt")), is((long) contents.length));
+        assertTrue(Arrays.equals(Files.readAllBytes(target.resolve("root/a.txt")), contents));
+
+        // without links both files are copied
+        options.setOverwrite(true);
+        options.setHardLinks(false);
+        result = Iso9660Extractor.extractAll(image, target, options);
+        assertThat(result.getLinks(), is(0L));
+        assertThat(result.getBytes(), is(2L * contents.length));
+        assertTrue(!Files.isSameFile(target.resolve("root/a.txt"), target.resolve("root/b.txt")));
+        assertTrue(Arrays.equals(Files.readAllBytes(target.resolve("root/b.txt")), contents));
+        image.close();
+    }
+
+    @Test
+    public void streamReaderReturnsEveryEntryInOnePass() throws Exception {
+        Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        List<String> expected = new ArrayList<String>();
+        for (Iso9660FileEntry entry : image) {
+            expected.add(entry.getPath());
+        }
+        image.close();
+
+        Iso9660StreamReader reader = new Iso9660StreamReader(new FileInputStream(filePath));
+        List<String> paths = new ArrayList<String>();
+        String contents = null;
+        Iso9660FileEntry entry;
+        while ((entry = reader.getNextEntry()) != null) {
+            paths.add(entry.getPath());
+            if ("root/b.txt".equals(entry.getPath())) {
+                contents = IOUtil.toString(reader.getInputStream());
+            }
+        }
+        reader.close();
+
+        Collections.sort(expected);
+        Collections.sort(paths);
+        assertThat(paths, is(expected));
+        assertThat(contents, is("Goodbye"));
+    }
+
+    @Test
+    public void imageIsReadOverHttpRanges() throws Exception {
+        final byte[] bytes = Files.readAllBytes(new File(filePath).toPath());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int first = Integer.parseInt(bounds[0]);
+                int last = Math.min(Integer.parseInt(bounds[1]), bytes.length - 1);
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + bytes.length);
+                exchange.sendResponseHeaders(206, last - first + 1);
+                exchange.getResponseBody().write(bytes, first, last - first + 1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/test.iso");
+            SeekableInputHttp input = new SeekableInputHttp(url, 16 * 1024, 8, 2);
+            assertThat(input.length(), is((long) bytes.length));
+
+            Iso9660FileSystem image = new Iso9660FileSystem(input, true);
+            assertThat(IOUtil.toString(image.getInputStream(image.getEntry("root/b.txt"))), is("Goodbye"));
+            assertThat(image.listChildren(image.getEntry("root")).size(), is(2));
+            image.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void compressedImageIsReadThroughMemberIndex() throws Exception {
+        File compressed = File.createTempFile("test", ".iso.gz");
+        compressed.deleteOnExit();
+        File index = new File(compressed.getPath() + SeekableInputGzip.INDEX_SUFFIX);
+        index.deleteOnExit();
+        SeekableInputGzip.compress(new File(filePath), compressed, 4096);
+        assertTrue(index.isFile());
+
+        SeekableInputGzip input = new SeekableInputGzip(compressed);
+        assertThat(input.length(), is(new File(filePath).length()));
+        assertTrue(input.getMemberCount() > 1);
+        Iso9660FileSystem image = new Iso9660FileSystem(input, true);
+        assertThat(IOUtil.toString(image.getInputStream(image.getEntry("root/b.txt"))), is("Goodbye"));
+        image.close();
+
+        // without the index the members are found by decompressing the image once
+        assertTrue(index.delete());
+        input = new SeekableInputGzip(compressed, null, 1);
+        image = new Iso9660FileSystem(input, true);
+        Iso9660FileSystem reference = new Iso9660FileSystem(new File(filePath), true);
+        assertThat(IOUtil.toString(image.getInputStream(image.getEntry("root/a.txt"))),
+                is(IOUtil.toString(reference.getInputStream(reference.getEntry("root/a.txt")))));
+        reference.close();
+        image.close();
+    }
+
+    @Test
+    public void singleMemberGzipIsReadThroughCursor() throws Exception {
+        // a plain gzip file is a single member, which is read forwards and restarted on a backwards seek
+        File compressed = File.createTempFile("test", ".iso.gz");
+        compressed.deleteOnExit();
+        byte[] raw = Files.readAllBytes(new File(filePath).toPath());
+        GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+        out.write(raw);
+        out.close();
+
+        SeekableInputGzip input = new SeekableInputGzip(compressed, null, 1, 0);
+        assertThat(input.getMemberCount(), is(1));
+        assertThat(input.length(), is((long) raw.length));
+        byte[] buffer = new byte[3000];
+        for (int pos : new int[]{40000, 1000, 1000, 50000, 0, raw.length - 1000}) {
+            int read = input.read(pos, buffer, 0, buffer.length);
+            assertThat(read, is(Math.min(buffer.length, raw.length - pos)));
+            assertTrue("bytes at " + pos,
+                    Arrays.equals(Arrays.copyOf(buffer, read), Arrays.copyOfRange(raw, pos, pos + read)));
+        }
+        assertThat(input.read(raw.length, buffer, 0, buffer.length), is(-1));
+
+        Iso9660FileSystem image = new Iso9660FileSystem(input, true);
+        runCheck(image);
+        image.close();
+    }
+
+    @Test
+    public void multiExtentRecordsAreMergedIntoOneEntry() throws Exception {
+        Iso9660FileSystem reference = new Iso9660FileSystem(new File(filePath), true);
+        Iso9660FileEntry directory = reference.getEntry("root");
+        Iso9660FileEntry a = reference.getEntry("root/a.txt");
+        String expected = IOUtil.toString(reference.getInputStream(a))
+                + IOUtil.toString(reference.getInputStream(reference.getEntry("root/b.txt")));
+        reference.close();
+
+        // flag the record of a.txt as continued by the next one, b.txt
+        File copy = File.createTempFile("test", ".iso");
+        copy.deleteOnExit();
+        Files.copy(new File(filePath).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        RandomAccessFile raf = new RandomAccessFile(copy, "rw");
+        byte[] records = new byte[(int) directory.getSize()];
+        raf.seek(directory.getStartBlock() * 2048);
+        raf.readFully(records);
+        ByteBuffer buffer = ByteBuffer.wrap(records).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        while ((buffer.getInt(offset + 2) & 0xffffffffL) != a.getStartBlock()) {
+            offset += records[offset] & 0xff;
+        }
+        raf.seek(directory.getStartBlock() * 2048 + offset + 25);
+        raf.write(records[offset + 25] | 0x80);
+        raf.close();
+
+        Iso9660FileSystem image = new Iso9660FileSystem(copy, true);
+        Iso9660FileEntry entry = image.getEntry("root/a.txt");
+        assertThat(entry.getExtentCount(), is(2));
+        assertThat(entry.getSize(), is((long) expected.length()));
+        assertThat(IOUtil.toString(image.getInputStream(entry)), is(expected));
+        assertThat(image.getEntry("root/b.txt"), is((Iso9660FileEntry) null));
+        assertThat(image.listChildren(image.getEntry("root")).size(), is(1));
+
+        EntryChannel channel = image.openChannel(entry);
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        assertThat(channel.transferTo(Channels.newChannel(transferred)), is(entry.getSize()));
+        assertThat(transferred.toString("US-ASCII"), is(expected));
+
+        EntryReadRequest request = new EntryReadRequest(entry);
+        image.readEntries(Collections.singletonList(request));
+        assertThat(new String(request.getBuffer(), 0, request.getBytesRead(), "US-ASCII"), is(expected));
+
+        Iso9660Index index = Iso9660Index.build(image);
+        assertThat(index.getSize(index.find("root/a.txt")), is(entry.getSize()));
+        assertThat(IOUtil.toString(image.getInputStream(index.toEntry(image, index.find("root/a.txt")))),
+                is(expected));
+        image.close();
+    }
+
+    @Test
+    public void zisofsFilesAreDecompressedOnRead() throws Exception {
+        byte[] contents = new byte[200 * 1024];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) ((i % 7 == 0) ? 'x' : 'a' + i % 13);
+        }
+        // the second block is all zeros, which zisofs does not store at all
+        Arrays.fill(contents, 32 * 1024, 64 * 1024, (byte) 0);
+        byte[] compressed = zisofs(contents, 15);
+
+        // append the compressed data to a copy of the image and point a.txt at it, with a ZF entry
+        Iso9660FileSystem reference = new Iso9660FileSystem(new File(filePath), true);
+        Iso9660FileEntry directory = reference.getEntry("root");
+        long aBlock = reference.getEntry("root/a.txt").getStartBlock();
+        reference.close();
+
+        File copy = File.createTempFile("test", ".iso");
+        copy.deleteOnExit();
+        Files.copy(new File(filePath).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        RandomAccessFile raf = new RandomAccessFile(copy, "rw");
+        long block = (raf.length() + 2047) / 2048;
+        raf.seek(block * 2048);
+        raf.write(compressed);
+        repointRecord(raf, directory.getStartBlock(), aBlock, block, compressed.length, zf(contents.length, 15));
+        raf.close();
+
+        CountingSeekableInput input = new CountingSeekableInput(copy);
+        Iso9660FileSystem image = new Iso9660FileSystem(input, true);
+        image.setBlockCache(null);
+        Iso9660FileEntry entry = image.getEntry("root/a.txt");
+        assertTrue(entry.isCompressed());
+        assertThat(entry.getSize(), is((long) contents.length));
+        assertThat(entry.getStoredSize(), is((long) compressed.length));
+
+        // a read in the middle only reads the pointer table and the block it covers, which holds bytes 98304-131071
+        ByteBuffer table = ByteBuffer.wrap(compressed).order(ByteOrder.LITTLE_ENDIAN);
+        int tableLength = table.getInt(16);
+        int blockLength = table.getInt(16 + 4 * 4) - table.getInt(16 + 4 * 3);
+        long bytesBefore = input.bytes;
+        InputStream in = image.getInputStream(entry);
+        assertThat(in.skip(100000), is(100000L));
+        byte[] middle = new byte[1000];
+        assertThat(in.read(middle), is(1000));
+        assertTrue(Arrays.equals(middle, Arrays.copyOfRange(contents, 100000, 101000)));
+        assertThat(input.bytes - bytesBefore, is((long) (tableLength + blockLength)));
+
+        // the pointer table is cached, so the next reader only reads the block
+        bytesBefore = input.bytes;
+        byte[] bytes = new byte[1000];
+        assertThat(image.readBytes(entry, 100000, bytes, 0, bytes.length), is(1000));
+        assertTrue(Arrays.equals(bytes, middle));
+        assertThat(input.bytes - bytesBefore, is((long) blockLength));
+
+        // as does an asynchronous read
+        bytesBefore = input.bytes;
+        ByteBuffer async = ByteBuffer.allocate(1000);
+        assertThat(image.readAsync(entry, 100000, async).get(), is(1000));
+        assertTrue(Arrays.equals(async.array(), middle));
+        assertThat(input.bytes - bytesBefore, is((long) blockLength));
+
+        assertTrue(Arrays.equals(IOUtil.toByteArray(image.getInputStream(entry)), contents));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        EntryChannel channel = image.openChannel(entry);
+        assertThat(channel.transferTo(Channels.newChannel(transferred), executor), is((long) contents.length));
+        executor.shutdown();
+        assertTrue(Arrays.equals(transferred.toByteArray(), contents));
+
+        EntryReadRequest request = new EntryReadRequest(entry);
+        image.readEntries(Collections.singletonList(request));
+        assertThat(request.getBytesRead(), is(contents.length));
+        assertTrue(Arrays.equals(request.getBuffer(), contents));
+        assertThat(IOUtil.toString(image.getInputStream(image.getEntry("root/b.txt"))), is("Goodbye"));
+        image.close();
+    }
+
+    @Test
+    public void zisofsFilesOfTheJolietHierarchyAreFoundThroughThePrimaryOne() throws Exception {
+        byte[] contents = new byte[100 * 1024];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) ('a' + i % 23);
+        }
+        byte[] compressed = zisofs(contents, 15);
+
+        // as written by mkisofs -R -J -z: only the primary record of a.txt has a ZF entry, the Joliet one has none
+        Iso9660FileSystem reference = new Iso9660FileSystem(new File(filePath), true);
+        Iso9660VolumeDescriptorSet descriptors = reference.loadedVolumeDescriptorSet();
+        assertTrue(descriptors.hasSupplementary());
+        long jolietDirectory = reference.getEntry("root").getStartBlock();
+        long aBlock = reference.getEntry("root/a.txt").getStartBlock();
+        DirectoryRecordCursor primary = new DirectoryRecordCursor(reference, 2048,
+                descriptors.getPrimaryRootEntry().getStartBlock(), -1, null, true);
+        assertTrue(primary.next());
+        long primaryDirectory = primary.getStartBlock();
+        reference.close();
+
+        File copy = File.createTempFile("test", ".iso");
+        copy.deleteOnExit();
+        Files.copy(new File(filePath).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        RandomAccessFile raf = new RandomAccessFile(copy, "rw");
+        long block = (raf.length() + 2047) / 2048;
+        raf.seek(block * 2048);
+        raf.write(compressed);
+        repointRecord(raf, primaryDirectory, aBlock, block, compressed.length, zf(contents.length, 15));
+        repointRecord(raf, jolietDirectory, aBlock, block, compressed.length, new byte[0]);
+        raf.close();
+
+        Iso9660FileSystem image = new Iso9660FileSystem(copy, true);
+        Iso9660FileEntry entry = image.getEntry("root/a.txt");
+        assertTrue(entry.isCompressed());
+        assertThat(entry.getSize(), is((long) contents.length));
+        assertThat(entry.getStoredSize(), is((long) compressed.length));
+        assertTrue(Arrays.equals(IOUtil.toByteArray(image.getInputStream(entry)), contents));
+        assertThat(IOUtil.toString(image.getInputStream(image.getEntry("root/b.txt"))), is("Goodbye"));
+
+        DirectoryRecordCursor cursor = image.openCursor(image.getEntry("root"));
+        while (cursor.next() && !"a.txt".equals(cursor.getName())) {
+            // skip to a.txt
+        }
+        assertThat(cursor.getSize(), is((long) contents.length));
+        Iso9660Index index = Iso9660Index.build(image);
+        assertThat(index.getSize(index.find("root/a.txt")), is((long) contents.length));
+        image.close();
+
+        Iso9660StreamReader reader = new Iso9660StreamReader(new FileInputStream(copy));
+        byte[] streamed = null;
+        while ((entry = reader.getNextEntry()) != null) {
+            if ("root/a.txt".equals(entry.getPath())) {
+                assertTrue(entry.isCompressed());
+                streamed = IOUtil.toByteArray(reader.getInputStream());
+            }
+        }
+        reader.close();
+        assertTrue(Arrays.equals(streamed, contents));
+    }
+
+    /**
+     * Points the record for the data at <code>oldBlock</code> in the single block directory at <code>directory</code>
+     * to <code>size</code> bytes at <code>newBlock</code>, appending <code>systemUse</code> to the record.
+     */
+    private static void repointRecord(RandomAccessFile raf, long directory, long oldBlock, long newBlock, int size,
+                                      byte[] systemUse) throws IOException {
+        byte[] records = new byte[2048];
+        raf.seek(directory * 2048);
+        raf.readFully(records);
+        ByteBuffer original = ByteBuffer.wrap(records).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer rewritten = ByteBuffer.allocate(2048).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; records[offset] != 0; offset += records[offset] & 0xff) {
+            int start = rewritten.position();
+            rewritten.put(records, offset, records[offset] & 0xff);
+            if ((original.getInt(offset + 2) & 0xffffffffL) == oldBlock) {
+                // both byte orders of the extent and size
+                rewritten.putInt(start + 2, (int) newBlock).putInt(start + 6, Integer.reverseBytes((int) newBlock));
+                rewritten.putInt(start + 10, size).putInt(start + 14, Integer.reverseBytes(size));
+                rewritten.put(systemUse);
+                rewritten.put(start, (byte) (rewritten.position() - start));
+            }
+        }
+        raf.seek(directory * 2048);
+        raf.write(rewritten.array());
+    }
+
+    /**
+     * Returns a Rock Ridge ZF entry: algorithm, header size, block size and both byte orders of the uncompressed size.
+     */
+    private static byte[] zf(int size, int blockShift) {
+        return ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN)
+                .put(new byte[]{'Z', 'F', 16, 1, 'p', 'z', 4, (byte) blockShift}).putInt(size)
+                .putInt(Integer.reverseBytes(size)).array();
+    }
+
+    /**
+     * Compresses data in the zisofs format: a header, a table of block pointers and the blocks compressed with zlib.
+     */
+    private static byte[] zisofs(byte[] data, int blockShift) {
+        int blockSize = 1 << blockShift;
+        int blocks = (data.length + blockSize - 1) / blockSize;
+        int tableEnd = 16 + 4 * (blocks + 1);
+        ByteBuffer out = ByteBuffer.allocate(tableEnd + data.length + 64 * blocks).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(new byte[]{0x37, (byte) 0xe4, 0x53, (byte) 0x96, (byte) 0xc9, (byte) 0xdb, (byte) 0xd6, 0x07});
+        out.putInt(data.length).put((byte) 4).put((byte) blockShift).putShort((short) 0);
+        out.position(tableEnd);
+        byte[] buffer = new byte[2 * blockSize];
+        for (int i = 0; i < blocks; i++) {
+            out.putInt(16 + 4 * i, out.position());
+            int length = Math.min(blockSize, data.length - i * blockSize);
+            boolean zeros = true;
+            for (int j = 0; j < length && zeros; j++) {
+                zeros = data[i * blockSize + j] == 0;
+            }
+            if (!zeros) {
+                Deflater deflater = new Deflater();
+                deflater.setInput(data, i * blockSize, length);
+                deflater.finish();
+                out.put(buffer, 0, deflater.deflate(buffer));
+                deflater.end();
+            }
+        }
+        out.putInt(16 + 4 * blocks, out.position());
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    @Test
+    public void entriesAreReadAsynchronously() throws Exception {
+        for (SeekableInput input : Arrays.asList(new SeekableInputAsynchronousFile(new File(filePath)),
+                new SeekableInputFile(new File(filePath)))) {
+            Iso9660FileSystem image = new Iso9660FileSystem(input, true);
+            Iso9660FileEntry entry = image.getEntry("root/b.txt");
+
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            assertThat(image.readAsync(entry, 0, buffer).get(), is(7));
+            assertThat(new String(buffer.array(), 0, buffer.position(), "US-ASCII"), is("Goodbye"));
+
+            buffer.clear();
+            assertThat(image.readAsync(entry, 4, buffer).get(), is(3));
+            assertThat(new String(buffer.array(), 0, buffer.position(), "US-ASCII"), is("bye"));
+            assertThat(image.readAsync(entry, 7, buffer).get(), is(-1));
+            image.close();
+        }
+    }
+
+    @Test
+    public void manyAsynchronousReadsUseBoundedThreads() throws Exception {
+        // a slow input that cannot read asynchronously, so every read holds a thread of the default executor
+        Iso9660FileSystem image = new Iso9660FileSystem(new SeekableInputFile(new File(filePath)) {
+            @Override
+            public int read(long pos, ByteBuffer dst) throws IOException {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                return super.read(pos, dst);
+            }
+        }, true);
+        Iso9660FileEntry entry = image.getEntry("root/b.txt");
+
+        List<CompletableFuture<Integer>> reads = new ArrayList<CompletableFuture<Integer>>();
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 500; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(7);
+            buffers.add(buffer);
+            reads.add(image.readAsync(entry, 0, buffer));
+        }
+        int threads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("loop-fs-async-read-")) {
+                threads++;
+            }
+        }
+        assertTrue(threads + " threads", threads <= AbstractFileSystem.DEFAULT_ASYNC_THREADS);
+
+        for (int i = 0; i < reads.size(); i++) {
+            assertThat(reads.get(i).get(), is(7));
+            assertThat(new String(buffers.get(i).array(), "US-ASCII"), is("Goodbye"));
+        }
+        image.close();
+    }
+
     @Test
     public void shouldReadAllBytesWhenSeekableInputPartiallyReads() throws IOException {
         // Create seekeable input which does not read up to specified length
@@ -80,6 +952,127 @@ public class Iso9660FileSystemTest {
         assertThat("All bytes should have been read", new String(bytes), is("Goodbye"));
     }
 
+    @Test
+    public void concurrentReadersSeeSameContents() throws Exception {
+        final Iso9660FileSystem image = new Iso9660FileSystem(new File(filePath), true);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            runCheck(image);
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        image.close();
+        assertThat(failures.toString(), failures.isEmpty(), is(true));
+    }
+
+    @Test
+    public void pooledHandlesServeConcurrentReaders() throws Exception {
+        // a stateful input without positional reads, as custom streams usually are
+        final SeekableInputPool pool = new SeekableInputPool(new SeekableInputFactory() {
+            public SeekableInput open() throws IOException {
+                final RandomAccessFile file = new RandomAccessFile(filePath, "r");
+                return new SeekableInput() {
+                    public void seek(long pos) throws IOException {
+                        file.seek(pos);
+                    }
+
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return file.read(b, off, len);
+                    }
+
+                    public void close() throws IOException {
+                        file.close();
+                    }
+                };
+            }
+        }, 2, 60 * 1000);
+        final Iso9660FileSystem image = new Iso9660FileSystem(pool, true);
+        image.setBlockCache(null);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20; j++) {
+                            runCheck(image);
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failures.toString(), failures.isEmpty(), is(true));
+
+        PoolStats stats = pool.getStats();
+        assertTrue(stats.toString(), stats.getBorrowCount() > 0);
+        assertTrue(stats.toString(), stats.getOpenCount() <= 2);
+        assertThat(stats.getHandles(), is(stats.getIdleHandles()));
+
+        image.close();
+        assertThat(pool.getStats().getHandles(), is(0));
+    }
+
+    @Test
+    public void idlePooledHandlesAreEvicted() throws Exception {
+        final AtomicInteger opened = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        SeekableInputPool pool = new SeekableInputPool(new SeekableInputFactory() {
+            public SeekableInput open() throws IOException {
+                opened.incrementAndGet();
+                return new SeekableInputFile(new File(filePath)) {
+                    @Override
+                    public void close() throws IOException {
+                        closed.incrementAndGet();
+                        super.close();
+                    }
+                };
+            }
+        }, 2, 20);
+        byte[] buffer = new byte[16];
+        assertThat(pool.read(0, buffer, 0, buffer.length), is(16));
+        assertThat(pool.getStats().getIdleHandles(), is(1));
+
+        Thread.sleep(100);
+        pool.evictIdle();
+        PoolStats stats = pool.getStats();
+        assertThat(stats.getEvictionCount(), is(1L));
+        assertThat(stats.getHandles(), is(0));
+        // the background eviction may have taken the handle first, and closes it outside the pool's lock
+        for (int i = 0; i < 100 && closed.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(closed.get(), is(1));
+
+        // the next read opens a new handle
+        assertThat(pool.read(16, buffer, 0, buffer.length), is(16));
+        assertThat(opened.get(), is(2));
+        assertThat(pool.getStats().getOpenCount(), is(2L));
+        assertThat(pool.getStats().getHandles(), is(1));
+        pool.close();
+        assertThat(closed.get(), is(2));
+    }
+
     @Test
     public void hdfsSmokes() throws Exception {
         assumeTrue(isNotWindows());
@@ -113,6 +1106,28 @@ public class Iso9660FileSystemTest {
         return !os.startsWith("Windows");
     }
 
+    private static class CountingSeekableInput extends SeekableInputFile {
+
+        private int reads;
+        private long bytes;
+
+        public CountingSeekableInput() throws IOException {
+            this(new File(filePath));
+        }
+
+        public CountingSeekableInput(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        public int read(long pos, byte[] b, int off, int len) throws IOException {
+            reads++;
+            int read = super.read(pos, b, off, len);
+            bytes += Math.max(0, read);
+            return read;
+        }
+    }
+
     private static class PartiallyReadSeekableInput extends SeekableInputFile {
 
         private byte[] bytes;
@@ -129,5 +1144,14 @@ public class Iso9660FileSystemTest {
             bytes = b;
             return super.read(b, off, length);
         }
+
+        @Override
+        public int read(long pos, byte[] b, int off, int len) throws IOException {
+            // Deliberately miss last byte on first pass
+            boolean firstPass = b != bytes;
+            int length = firstPass ? len - 1 : len;
+            bytes = b;
+            return super.read(pos, b, off, length);
+        }
     }
 }
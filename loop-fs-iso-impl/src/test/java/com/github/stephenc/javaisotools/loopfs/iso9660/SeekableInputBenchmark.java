@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.iso9660;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInput;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputFile;
+import com.github.stephenc.javaisotools.loopfs.spi.SeekableInputMapped;
+
+/**
+ * Compares reading every file of an image through {@link SeekableInputFile} with {@link SeekableInputMapped}. This is
+ * not run as part of the build; run it from the test classpath with
+ * <code>SeekableInputBenchmark &lt;image.iso&gt; [rounds]</code>.
+ */
+public class SeekableInputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SeekableInputBenchmark <image.iso> [rounds]");
+            System.exit(1);
+        }
+        final File image = new File(args[0]);
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        // warm up both paths before measuring
+        run("file", image, 2, false);
+        run("mapped", image, 2, true);
+
+        run("file", image, rounds, false);
+        run("mapped", image, rounds, true);
+    }
+
+    private static void run(String name, File image, int rounds, boolean mapped) throws IOException {
+        final SeekableInput input = mapped ? new SeekableInputMapped(image) : new SeekableInputFile(image);
+        final Iso9660FileSystem fs = new Iso9660FileSystem(input, true);
+        try {
+            final List<Iso9660FileEntry> files = new ArrayList<Iso9660FileEntry>();
+            for (Iso9660FileEntry entry : fs) {
+                if (!entry.isDirectory()) {
+                    files.add(entry);
+                }
+            }
+
+            final byte[] buffer = new byte[8192];
+            long bytes = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                for (Iso9660FileEntry entry : files) {
+                    final InputStream in = fs.getInputStream(entry);
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        bytes += read;
+                    }
+                    in.close();
+                }
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            final long reads = (long) rounds * files.size();
+            System.out.println(String.format("%-8s %8d files %10.1f us/file %10.1f MB/s", name, reads,
+                    elapsed / 1000.0 / Math.max(1, reads), bytes * 1000.0 / Math.max(1, elapsed)));
+        } finally {
+            fs.close();
+        }
+    }
+}
@@ -20,7 +20,11 @@
 package com.github.stephenc.javaisotools.loopfs.spi;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
 import com.github.stephenc.javaisotools.loopfs.api.FileEntry;
 
@@ -30,9 +34,31 @@ import com.github.stephenc.javaisotools.loopfs.api.FileEntry;
  */
 public abstract class AbstractBlockFileSystem<T extends FileEntry> extends AbstractFileSystem<T> {
 
+    /**
+     * The number of blocks cached by default.
+     */
+    public static final int DEFAULT_CACHED_BLOCKS = 1024;
+
+    /**
+     * The largest gap, in bytes, between two requests of a batch that are still merged into a single read.
+     */
+    public static final int DEFAULT_MAX_READ_GAP = 64 * 1024;
+
+    /**
+     * The largest single read a batch is merged into, in bytes.
+     */
+    public static final int DEFAULT_MAX_READ_SIZE = 1024 * 1024;
+
+    private static final Comparator<ReadRequest> BY_POSITION = new Comparator<ReadRequest>() {
+        public int compare(final ReadRequest a, final ReadRequest b) {
+            return (a.getPosition() < b.getPosition()) ? -1 : ((a.getPosition() == b.getPosition()) ? 0 : 1);
+        }
+    };
+
     private final int blockSize;
     private final int reservedBlocks;
-    private VolumeDescriptorSet<T> volumeDescriptorSet;
+    private volatile VolumeDescriptorSet<T> volumeDescriptorSet;
+    private volatile BlockCache blockCache = new LruBlockCache(DEFAULT_CACHED_BLOCKS);
 
     protected AbstractBlockFileSystem(final SeekableInput seekable, final boolean readOnly, final int blockSize,
                                       final int reservedBlocks)
@@ -50,32 +76,53 @@ public abstract class AbstractBlockFileSystem<T extends FileEntry> extends Abstr
         this.reservedBlocks = reservedBlocks;
     }
 
+    /**
+     * Creates a file system over a {@link SeekableInputPool} of handles opened by <code>factory</code>, so that
+     * concurrent reads from an input without positional reads each use a handle of their own.
+     */
+    protected AbstractBlockFileSystem(final SeekableInputFactory factory, final boolean readOnly, final int blockSize,
+                                      final int reservedBlocks)
+            throws IOException {
+        this(new SeekableInputPool(factory), readOnly, blockSize, reservedBlocks);
+    }
+
     public final Iterator<T> iterator() {
+        try {
+            return iterator(getRoot());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public final T getRoot() throws IOException {
         ensureOpen();
 
         // load the volume descriptors if necessary
         if (null == this.volumeDescriptorSet) {
-            try {
-                loadVolumeDescriptors();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
+            loadVolumeDescriptors();
         }
 
-        return iterator(this.volumeDescriptorSet.getRootEntry());
+        return this.volumeDescriptorSet.getRootEntry();
     }
 
-    protected void loadVolumeDescriptors() throws IOException {
+    protected synchronized void loadVolumeDescriptors() throws IOException {
+        if (null != this.volumeDescriptorSet) {
+            return;
+        }
+
         final byte[] buffer = new byte[this.blockSize];
 
-        this.volumeDescriptorSet = createVolumeDescriptorSet();
+        final VolumeDescriptorSet<T> descriptors = createVolumeDescriptorSet();
 
         // skip the reserved blocks, then read volume descriptor blocks sequentially and add them
         // to the VolumeDescriptorSet
         int block = this.reservedBlocks;
-        while (readBlock(block, buffer) && !this.volumeDescriptorSet.deserialize(buffer)) {
+        while (readBlock(block, buffer) && !descriptors.deserialize(buffer)) {
             block++;
         }
+
+        // only publish the set once it is complete, concurrent readers may be waiting for it
+        this.volumeDescriptorSet = descriptors;
     }
 
     /**
@@ -87,7 +134,7 @@ public abstract class AbstractBlockFileSystem<T extends FileEntry> extends Abstr
      *                     size)
      */
     protected final boolean readBlock(final long block, final byte[] buffer) throws IOException {
-        final int bytesRead = readData(block * this.blockSize, buffer, 0, this.blockSize);
+        final int bytesRead = readBlockData(block, 0, buffer, 0, this.blockSize);
 
         if (bytesRead <= 0) {
             return false;
@@ -101,15 +148,161 @@ public abstract class AbstractBlockFileSystem<T extends FileEntry> extends Abstr
     }
 
     /**
-     * Read file data, starting at the specified position.
+     * Read data through the block cache, starting at the specified position. This is meant for metadata such as
+     * descriptors, path tables and directories that are read over and over again; file contents should be read with
+     * {@link #readData(long, byte[], int, int)} so that they do not push metadata out of the cache.
+     *
+     * @return the number of bytes read into the buffer
+     */
+    protected final int readCachedData(final long startPos, final byte[] buffer, final int offset, final int len)
+            throws IOException {
+        int done = 0;
+
+        while (done < len) {
+            final long pos = startPos + done;
+            final long block = pos / this.blockSize;
+            final int blockOffset = (int) (pos % this.blockSize);
+            final int count = Math.min(len - done, this.blockSize - blockOffset);
+
+            final int bytesRead = readBlockData(block, blockOffset, buffer, offset + done, count);
+            if (bytesRead > 0) {
+                done += bytesRead;
+            }
+            if (bytesRead < count) {
+                // the end of the input
+                break;
+            }
+        }
+
+        return done;
+    }
+
+    /**
+     * Reads up to <code>count</code> bytes of a block, starting at <code>blockOffset</code>, from the cache if
+     * possible. A missing block is read whole and cached, unless it lies partly beyond the end of the input, in which
+     * case whatever there is of it is returned without reading it again. Without a cache the bytes are read straight
+     * into the buffer.
+     *
+     * @return the number of bytes read into the buffer
+     */
+    private int readBlockData(final long block, final int blockOffset, final byte[] buffer, final int offset,
+                              final int count) throws IOException {
+        final BlockCache cache = this.blockCache;
+
+        if (null == cache) {
+            return readData(block * this.blockSize + blockOffset, buffer, offset, count);
+        }
+
+        byte[] data = cache.get(block);
+        int available = this.blockSize;
+
+        if (null == data) {
+            data = new byte[this.blockSize];
+            available = readData(block * this.blockSize, data, 0, this.blockSize);
+
+            if (available == this.blockSize) {
+                cache.put(block, data);
+            }
+        }
+
+        final int bytesRead = Math.min(count, available - blockOffset);
+
+        if (bytesRead <= 0) {
+            return 0;
+        }
+
+        System.arraycopy(data, blockOffset, buffer, offset, bytesRead);
+        return bytesRead;
+    }
+
+    /**
+     * Returns the cache used for blocks read with {@link #readBlock(long, byte[])} and
+     * {@link #readCachedData(long, byte[], int, int)}, or null if caching is disabled.
+     */
+    public final BlockCache getBlockCache() {
+        return this.blockCache;
+    }
+
+    /**
+     * Replaces the block cache. Pass null to disable caching.
+     */
+    public final void setBlockCache(final BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Read file data, starting at the specified position. This is safe to call from several threads at once.
      *
      * @return the number of bytes read into the buffer
      */
-    protected final synchronized int readData(final long startPos, final byte[] buffer, final int offset,
-                                        final int len)
+    protected final int readData(final long startPos, final byte[] buffer, final int offset, final int len)
+            throws IOException {
+        return read(startPos, buffer, offset, len);
+    }
+
+    /**
+     * Reads a batch of requests, merging them into as few reads as possible. The requests are sorted by position and
+     * those no more than {@link #DEFAULT_MAX_READ_GAP} bytes apart are read together, in block aligned reads of up
+     * to {@link #DEFAULT_MAX_READ_SIZE} bytes, then the bytes of each request are copied to its buffer. Reading many
+     * small files this way costs a few large sequential reads instead of a seek per file.
+     */
+    protected final void readBatch(final List<? extends ReadRequest> requests) throws IOException {
+        readBatch(requests, DEFAULT_MAX_READ_GAP, DEFAULT_MAX_READ_SIZE);
+    }
+
+    /**
+     * Reads a batch of requests, merging requests no more than <code>maxGap</code> bytes apart into block aligned
+     * reads of up to <code>maxReadSize</code> bytes. A request larger than that is read on its own.
+     */
+    protected final void readBatch(final List<? extends ReadRequest> requests, final int maxGap, final int maxReadSize)
             throws IOException {
-        seek(startPos);
-        return read(buffer, offset, len);
+        final List<ReadRequest> sorted = new ArrayList<ReadRequest>(requests);
+        Collections.sort(sorted, BY_POSITION);
+
+        byte[] scratch = null;
+        int first = 0;
+
+        while (first < sorted.size()) {
+            // grow the run while the next request starts close enough and still fits
+            final long start = sorted.get(first).getPosition() / this.blockSize * this.blockSize;
+            long end = sorted.get(first).getPosition() + sorted.get(first).getLength();
+            int last = first + 1;
+            while (last < sorted.size()) {
+                final ReadRequest next = sorted.get(last);
+                final long nextEnd = Math.max(end, next.getPosition() + next.getLength());
+                if (next.getPosition() > end + maxGap || roundUp(nextEnd) - start > maxReadSize) {
+                    break;
+                }
+                end = nextEnd;
+                last++;
+            }
+
+            if (last - first == 1) {
+                final ReadRequest request = sorted.get(first);
+                request.setBytesRead(readData(request.getPosition(), request.getBuffer(), request.getOffset(),
+                        request.getLength()));
+            } else {
+                final int length = (int) (roundUp(end) - start);
+                if (null == scratch || scratch.length < length) {
+                    scratch = new byte[length];
+                }
+                final int read = readData(start, scratch, 0, length);
+
+                for (int i = first; i < last; i++) {
+                    final ReadRequest request = sorted.get(i);
+                    final int from = (int) (request.getPosition() - start);
+                    final int count = Math.max(0, Math.min(request.getLength(), read - from));
+                    System.arraycopy(scratch, from, request.getBuffer(), request.getOffset(), count);
+                    request.setBytesRead(count);
+                }
+            }
+
+            first = last;
+        }
+    }
+
+    private long roundUp(final long pos) {
+        return (pos + this.blockSize - 1) / this.blockSize * this.blockSize;
     }
 
     protected final VolumeDescriptorSet<T> getVolumeDescriptorSet() {
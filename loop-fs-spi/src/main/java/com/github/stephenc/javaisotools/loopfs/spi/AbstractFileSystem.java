@@ -20,6 +20,18 @@
 package com.github.stephenc.javaisotools.loopfs.spi;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import com.github.stephenc.javaisotools.loopfs.api.FileEntry;
 import com.github.stephenc.javaisotools.loopfs.api.FileSystem;
@@ -29,10 +41,26 @@ import com.github.stephenc.javaisotools.loopfs.api.FileSystem;
  */
 public abstract class AbstractFileSystem<T extends FileEntry> implements FileSystem<T> {
 
+    /**
+     * The size of the buffer used by {@link #transferTo(long, long, WritableByteChannel)} when the input cannot
+     * transfer by itself.
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of threads of the default asynchronous executor, one per processor. Further reads wait in its queue.
+     */
+    public static final int DEFAULT_ASYNC_THREADS = Runtime.getRuntime().availableProcessors();
+
     /**
      * Channel to the open file.
      */
-    private SeekableInput channel;
+    private volatile SeekableInput channel;
+
+    /**
+     * Runs the asynchronous reads of inputs that cannot read asynchronously by themselves.
+     */
+    private volatile Executor asyncExecutor;
 
     protected AbstractFileSystem(final SeekableInput seekable, final boolean readOnly) throws IOException {
         if (!readOnly) {
@@ -55,7 +83,7 @@ public abstract class AbstractFileSystem<T extends FileEntry> implements FileSys
         }
     }
 
-    public synchronized boolean isClosed() {
+    public boolean isClosed() {
         return (null == this.channel);
     }
 
@@ -88,6 +116,211 @@ public abstract class AbstractFileSystem<T extends FileEntry> implements FileSys
         return readFully(buffer, offset, length);
     }
 
+    /**
+     * Reads up to <code>length</code> bytes into the specified buffer, starting at the specified position in the
+     * underlying file. Inputs that support positional reads are read without locking, so any number of threads may
+     * read concurrently; other inputs are serialized on this file system because they need a seek before every read.
+     *
+     * @return the number of bytes read into the buffer
+     */
+    protected final int read(long pos, byte[] buffer, int offset, int length) throws IOException {
+        final SeekableInput input = this.channel;
+        if (null == input) {
+            throw new IllegalStateException("File has been closed");
+        }
+        if (input instanceof PositionalSeekableInput) {
+            return readFully((PositionalSeekableInput) input, pos, buffer, offset, length);
+        }
+        synchronized (this) {
+            seek(pos);
+            return readFully(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Reads bytes into the remaining space of <code>dst</code>, starting at the specified position in the underlying
+     * file, until the buffer is full or the end of the file is reached. Direct buffers are filled without an
+     * intermediate copy if the input supports positional reads.
+     *
+     * @return the number of bytes read into the buffer
+     */
+    protected final int read(long pos, ByteBuffer dst) throws IOException {
+        final SeekableInput input = this.channel;
+        if (null == input) {
+            throw new IllegalStateException("File has been closed");
+        }
+        if (input instanceof PositionalSeekableInput) {
+            final PositionalSeekableInput positional = (PositionalSeekableInput) input;
+            int total = 0;
+            int bytesRead;
+            while (dst.hasRemaining() && (bytesRead = positional.read(pos + total, dst)) != -1) {
+                total += bytesRead;
+            }
+            return total;
+        }
+        if (dst.hasArray()) {
+            final int bytesRead = read(pos, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + bytesRead);
+            return bytesRead;
+        }
+        final byte[] buffer = new byte[dst.remaining()];
+        final int bytesRead = read(pos, buffer, 0, buffer.length);
+        dst.put(buffer, 0, bytesRead);
+        return bytesRead;
+    }
+
+    /**
+     * Transfers up to <code>count</code> bytes, starting at the specified position in the underlying file, to the
+     * target channel. A {@link TransferableSeekableInput} transfers them itself, so that the operating system can
+     * copy them directly; other inputs are copied through a heap buffer, which blocks until every byte read has been
+     * written.
+     *
+     * @return the number of bytes transferred, which may be less than <code>count</code>
+     */
+    protected final long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        final SeekableInput input = this.channel;
+        if (null == input) {
+            throw new IllegalStateException("File has been closed");
+        }
+        if (input instanceof TransferableSeekableInput) {
+            return ((TransferableSeekableInput) input).transferTo(pos, count, target);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(count, TRANSFER_BUFFER_SIZE)));
+        long done = 0;
+        while (done < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - done));
+            final int bytesRead = read(pos + done, buffer);
+            if (bytesRead <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            done += bytesRead;
+        }
+        return done;
+    }
+
+    /**
+     * Starts reading bytes into the remaining space of <code>dst</code>, starting at the specified position in the
+     * underlying file, until the buffer is full or the end of the file is reached. An
+     * {@link AsynchronousSeekableInput} reads without tying up any thread while the reads are outstanding; other
+     * inputs are read on the {@link #getAsyncExecutor() asynchronous executor}. The calling thread never blocks.
+     *
+     * @return a future of the number of bytes read into the buffer
+     */
+    protected final CompletableFuture<Integer> readAsync(final long pos, final ByteBuffer dst) {
+        final SeekableInput input = this.channel;
+        if (null == input) {
+            final CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+            result.completeExceptionally(new IllegalStateException("File has been closed"));
+            return result;
+        }
+        if (input instanceof AsynchronousSeekableInput) {
+            final CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+            readFullyAsync((AsynchronousSeekableInput) input, pos, dst, 0, result);
+            return result;
+        }
+        return callAsync(new Callable<Integer>() {
+            public Integer call() throws IOException {
+                return read(pos, dst);
+            }
+        });
+    }
+
+    private static void readFullyAsync(final AsynchronousSeekableInput input, final long pos, final ByteBuffer dst,
+                                       final int done, final CompletableFuture<Integer> result) {
+        input.readAsync(pos + done, dst).whenComplete(new BiConsumer<Integer, Throwable>() {
+            public void accept(final Integer read, final Throwable ex) {
+                if (null != ex) {
+                    result.completeExceptionally(ex);
+                } else if (read > 0 && dst.hasRemaining()) {
+                    readFullyAsync(input, pos, dst, done + read, result);
+                } else {
+                    result.complete(done + Math.max(0, read));
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a blocking task on the {@link #getAsyncExecutor() asynchronous executor}.
+     *
+     * @return a future of the task's result, which completes exceptionally with whatever exception the task throws
+     */
+    protected final <V> CompletableFuture<V> callAsync(final Callable<V> task) {
+        final CompletableFuture<V> result = new CompletableFuture<V>();
+        try {
+            getAsyncExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        result.complete(task.call());
+                    } catch (Throwable ex) {
+                        result.completeExceptionally(ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the executor running the asynchronous reads of inputs that cannot read asynchronously by themselves.
+     * Unless {@link #setAsyncExecutor(Executor) replaced}, it is a pool of {@link #DEFAULT_ASYNC_THREADS} daemon
+     * threads shared by all file systems, with an unbounded queue; the threads stop after a minute without reads.
+     */
+    public Executor getAsyncExecutor() {
+        final Executor executor = this.asyncExecutor;
+        return (null != executor) ? executor : DefaultAsyncExecutor.INSTANCE;
+    }
+
+    /**
+     * Replaces the executor running the asynchronous reads. Pass null to use the shared default again.
+     */
+    public void setAsyncExecutor(final Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Holds the default asynchronous executor, which is only created when first used.
+     */
+    private static final class DefaultAsyncExecutor {
+
+        static final ThreadPoolExecutor INSTANCE = new ThreadPoolExecutor(DEFAULT_ASYNC_THREADS,
+                DEFAULT_ASYNC_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "loop-fs-async-read-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        static {
+            INSTANCE.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private static int readFully(PositionalSeekableInput input, long pos, byte[] buffer, int offset, int length)
+            throws IOException {
+        int bytesRead;
+        int remaining = length;
+
+        while (remaining != 0 &&
+                (bytesRead = input.read(pos, buffer, offset, remaining)) != -1) {
+            pos += bytesRead;
+            offset += bytesRead;
+            remaining -= bytesRead;
+        }
+        return length - remaining;
+    }
+
     private int readFully(byte[] buffer, int offset, int length) throws IOException {
         int bytesRead;
         int remaining = length;
@@ -0,0 +1,22 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link PositionalSeekableInput} that can also start a read without waiting for it, so that the calling thread
+ * (for instance an event loop) never blocks on the input and many reads can be outstanding at once.
+ */
+public interface AsynchronousSeekableInput extends PositionalSeekableInput {
+
+    /**
+     * Starts reading a sequence of bytes starting at <code>pos</code> into the remaining space of <code>dst</code>
+     * without changing the file pointer. The buffer must not be used until the read has completed.
+     *
+     * @return a future of the number of bytes read, possibly zero, or -1 if <code>pos</code> is at or beyond the end of
+     *         the input
+     *
+     * @see java.nio.channels.AsynchronousFileChannel#read(ByteBuffer, long)
+     */
+    CompletableFuture<Integer> readAsync(long pos, ByteBuffer dst);
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+/**
+ * A cache of file system blocks, keyed by block number. Implementations must be safe for concurrent use. Cached
+ * arrays are shared between readers and must never be modified.
+ */
+public interface BlockCache {
+
+    /**
+     * Returns the cached contents of the given block.
+     *
+     * @param block the block number
+     *
+     * @return the block contents, or null if the block is not cached
+     */
+    byte[] get(long block);
+
+    /**
+     * Caches the contents of the given block, possibly evicting other blocks.
+     *
+     * @param block the block number
+     * @param data  the block contents, which the cache takes ownership of
+     */
+    void put(long block, byte[] data);
+
+    /**
+     * Removes all blocks from the cache.
+     */
+    void clear();
+
+    /**
+     * Returns a snapshot of the cache counters. The weight is measured in blocks.
+     */
+    CacheStats getStats();
+}
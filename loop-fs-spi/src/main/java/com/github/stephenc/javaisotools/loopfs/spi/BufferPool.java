@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of reusable byte arrays. Sizes are rounded up to the minimum size times a power of two, and a bounded number
+ * of arrays of each size is kept for reuse; larger requests are allocated and dropped as usual. Releasing an array is
+ * optional, an array that is never released is simply garbage collected.
+ */
+public class BufferPool {
+
+    /**
+     * The default number of arrays of each size kept for reuse.
+     */
+    public static final int DEFAULT_POOLED_PER_SIZE = 16;
+
+    private final int minimumSize;
+
+    private final int poolSize;
+
+    private final List<ArrayDeque<byte[]>> free;
+
+    /**
+     * @param minimumSize the smallest array size
+     * @param maximumSize the largest array size that is pooled, rounded up to the minimum size times a power of two
+     * @param poolSize    the number of arrays of each size kept for reuse
+     */
+    public BufferPool(final int minimumSize, final int maximumSize, final int poolSize) {
+        if (minimumSize <= 0) {
+            throw new IllegalArgumentException("'minimumSize' must be > 0");
+        }
+        if (maximumSize < minimumSize) {
+            throw new IllegalArgumentException("'maximumSize' must be >= 'minimumSize'");
+        }
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("'poolSize' must be >= 0");
+        }
+
+        this.minimumSize = minimumSize;
+        this.poolSize = poolSize;
+        final int sizeClasses = sizeClass(maximumSize) + 1;
+        this.free = new ArrayList<ArrayDeque<byte[]>>(sizeClasses);
+        for (int i = 0; i < sizeClasses; i++) {
+            this.free.add(new ArrayDeque<byte[]>());
+        }
+    }
+
+    /**
+     * Returns an array of at least <code>size</code> bytes. The contents of a reused array are not cleared.
+     */
+    public byte[] acquire(final int size) {
+        final int sizeClass = sizeClass(size);
+
+        if (sizeClass >= this.free.size()) {
+            return new byte[size];
+        }
+
+        final ArrayDeque<byte[]> arrays = this.free.get(sizeClass);
+        synchronized (arrays) {
+            final byte[] array = arrays.poll();
+            if (null != array) {
+                return array;
+            }
+        }
+
+        return new byte[this.minimumSize << sizeClass];
+    }
+
+    /**
+     * Returns an array obtained from {@link #acquire(int)} to the pool. The caller must not use it afterwards.
+     */
+    public void release(final byte[] array) {
+        final int sizeClass = sizeClass(array.length);
+
+        // only keep arrays of exactly one of our sizes
+        if (sizeClass >= this.free.size() || array.length != this.minimumSize << sizeClass) {
+            return;
+        }
+
+        final ArrayDeque<byte[]> arrays = this.free.get(sizeClass);
+        synchronized (arrays) {
+            if (arrays.size() < this.poolSize) {
+                arrays.push(array);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the smallest pooled size that holds <code>size</code> bytes.
+     */
+    private int sizeClass(final int size) {
+        int sizeClass = 0;
+        while (sizeClass < 31 && ((long) this.minimumSize << sizeClass) < size) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+/**
+ * An immutable snapshot of the counters of a cache.
+ */
+public final class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long weight;
+    private final long maximumWeight;
+
+    public CacheStats(final long hitCount, final long missCount, final long evictionCount, final long weight,
+                      final long maximumWeight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.weight = weight;
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Returns the number of lookups that were served from the cache.
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that were not found in the cache.
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Returns the ratio of hits to lookups, or 1.0 if there have been no lookups yet.
+     */
+    public double getHitRate() {
+        final long requests = this.hitCount + this.missCount;
+        return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+    }
+
+    /**
+     * Returns the number of entries that were evicted to make room for others.
+     */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * Returns the current weight of the cache, in the cache's own unit (e.g. blocks or entries).
+     */
+    public long getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * Returns the weight above which the cache starts evicting.
+     */
+    public long getMaximumWeight() {
+        return this.maximumWeight;
+    }
+
+    public String toString() {
+        return "CacheStats{hits=" + this.hitCount + ", misses=" + this.missCount + ", evictions="
+                + this.evictionCount + ", weight=" + this.weight + "/" + this.maximumWeight + "}";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded {@link BlockCache} with least-recently-used eviction. The cache is split into independently locked
+ * segments so that concurrent readers of different blocks rarely contend; each segment evicts on its own, so the
+ * eviction order is only approximately LRU across the whole cache.
+ */
+public class LruBlockCache implements BlockCache {
+
+    /**
+     * The default number of segments.
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    private final Segment[] segments;
+
+    private final int maxBlocks;
+
+    public LruBlockCache(final int maxBlocks) {
+        this(maxBlocks, DEFAULT_SEGMENTS);
+    }
+
+    public LruBlockCache(final int maxBlocks, final int segments) {
+        if (maxBlocks <= 0) {
+            throw new IllegalArgumentException("'maxBlocks' must be > 0");
+        }
+        if (segments <= 0) {
+            throw new IllegalArgumentException("'segments' must be > 0");
+        }
+
+        // never have more segments than blocks, and spread the remainder over the first segments
+        final int count = Math.min(segments, maxBlocks);
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment(maxBlocks / count + (i < maxBlocks % count ? 1 : 0));
+        }
+        this.maxBlocks = maxBlocks;
+    }
+
+    public byte[] get(final long block) {
+        return segmentFor(block).get(block);
+    }
+
+    public void put(final long block, final byte[] data) {
+        segmentFor(block).put(block, data);
+    }
+
+    public void clear() {
+        for (Segment segment : this.segments) {
+            segment.clear();
+        }
+    }
+
+    public CacheStats getStats() {
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        long size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+                misses += segment.misses;
+                evictions += segment.evictions;
+                size += segment.size();
+            }
+        }
+        return new CacheStats(hits, misses, evictions, size, this.maxBlocks);
+    }
+
+    private Segment segmentFor(final long block) {
+        // blocks are usually read in runs, so mix the bits before picking a segment
+        long h = block * 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 32);
+        return this.segments[(int) ((h & 0x7fffffffL) % this.segments.length)];
+    }
+
+    private static final class Segment {
+
+        private final int capacity;
+
+        private final LinkedHashMap<Long, byte[]> blocks;
+
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        Segment(final int capacity) {
+            this.capacity = capacity;
+            this.blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+                    if (size() > Segment.this.capacity) {
+                        Segment.this.evictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized byte[] get(final long block) {
+            final byte[] data = this.blocks.get(block);
+            if (null == data) {
+                this.misses++;
+            } else {
+                this.hits++;
+            }
+            return data;
+        }
+
+        synchronized void put(final long block, final byte[] data) {
+            this.blocks.put(block, data);
+        }
+
+        synchronized void clear() {
+            this.blocks.clear();
+        }
+
+        int size() {
+            return this.blocks.size();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+/**
+ * An immutable snapshot of the counters of a {@link SeekableInputPool}.
+ */
+public final class PoolStats {
+
+    private final long borrowCount;
+    private final long openCount;
+    private final long evictionCount;
+    private final long waitCount;
+    private final long waitNanos;
+    private final int handles;
+    private final int idleHandles;
+    private final int maximumHandles;
+
+    public PoolStats(final long borrowCount, final long openCount, final long evictionCount, final long waitCount,
+                     final long waitNanos, final int handles, final int idleHandles, final int maximumHandles) {
+        this.borrowCount = borrowCount;
+        this.openCount = openCount;
+        this.evictionCount = evictionCount;
+        this.waitCount = waitCount;
+        this.waitNanos = waitNanos;
+        this.handles = handles;
+        this.idleHandles = idleHandles;
+        this.maximumHandles = maximumHandles;
+    }
+
+    /**
+     * Returns the number of times a handle was borrowed for a read.
+     */
+    public long getBorrowCount() {
+        return this.borrowCount;
+    }
+
+    /**
+     * Returns the number of handles opened, the borrows that found no idle handle.
+     */
+    public long getOpenCount() {
+        return this.openCount;
+    }
+
+    /**
+     * Returns the ratio of borrows served by an idle handle, or 1.0 if there have been no borrows yet.
+     */
+    public double getReuseRate() {
+        return this.borrowCount == 0 ? 1.0 : (double) (this.borrowCount - this.openCount) / this.borrowCount;
+    }
+
+    /**
+     * Returns the number of handles closed after staying idle too long.
+     */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * Returns the number of borrows that had to wait because every handle was in use.
+     */
+    public long getWaitCount() {
+        return this.waitCount;
+    }
+
+    /**
+     * Returns the total time borrowers spent waiting for a handle, in nanoseconds.
+     */
+    public long getWaitNanos() {
+        return this.waitNanos;
+    }
+
+    /**
+     * Returns the number of open handles, idle or in use.
+     */
+    public int getHandles() {
+        return this.handles;
+    }
+
+    /**
+     * Returns the number of open handles not in use.
+     */
+    public int getIdleHandles() {
+        return this.idleHandles;
+    }
+
+    /**
+     * Returns the largest number of handles the pool opens at once.
+     */
+    public int getMaximumHandles() {
+        return this.maximumHandles;
+    }
+
+    public String toString() {
+        return "PoolStats{borrows=" + this.borrowCount + ", opens=" + this.openCount + ", evictions="
+                + this.evictionCount + ", waits=" + this.waitCount + ", handles=" + this.handles + "/"
+                + this.maximumHandles + ", idle=" + this.idleHandles + "}";
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link SeekableInput} that can also read from an absolute position without moving its file pointer. Positional
+ * reads are stateless, so implementations must allow any number of threads to call them concurrently; file systems
+ * backed by such an input read without taking a global lock.
+ */
+public interface PositionalSeekableInput extends SeekableInput {
+
+    /**
+     * Reads up to <code>len</code> bytes starting at <code>pos</code> without changing the file pointer.
+     *
+     * @return the number of bytes read, possibly zero, or -1 if <code>pos</code> is at or beyond the end of the input
+     *
+     * @see java.nio.channels.FileChannel#read(ByteBuffer, long)
+     */
+    int read(long pos, byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Reads a sequence of bytes starting at <code>pos</code> into the remaining space of <code>dst</code> without
+     * changing the file pointer.
+     *
+     * @return the number of bytes read, possibly zero, or -1 if <code>pos</code> is at or beyond the end of the input
+     *
+     * @see java.nio.channels.FileChannel#read(ByteBuffer, long)
+     */
+    int read(long pos, ByteBuffer dst) throws IOException;
+}
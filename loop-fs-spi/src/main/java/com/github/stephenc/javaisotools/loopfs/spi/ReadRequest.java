@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2010. Stephen Connolly.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+/**
+ * One read of a batch: <code>length</code> bytes at an absolute position of the underlying file, to be stored in a
+ * caller supplied buffer. Once the batch has been read, {@link #getBytesRead()} tells how many bytes were stored,
+ * which is less than the length only at the end of the file.
+ *
+ * @see AbstractBlockFileSystem#readBatch(java.util.List)
+ */
+public class ReadRequest {
+
+    private final long position;
+    private final byte[] buffer;
+    private final int offset;
+    private final int length;
+
+    private int bytesRead = -1;
+
+    public ReadRequest(final long position, final byte[] buffer, final int offset, final int length) {
+        if (position < 0) {
+            throw new IllegalArgumentException("'position' must be >= 0");
+        }
+        if (offset < 0 || length < 0 || offset + length > buffer.length) {
+            throw new IndexOutOfBoundsException("'offset' and 'length' must lie within 'buffer'");
+        }
+        this.position = position;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getPosition() {
+        return this.position;
+    }
+
+    public byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns the number of bytes stored in the buffer, or -1 if the request has not been read yet.
+     */
+    public int getBytesRead() {
+        return this.bytesRead;
+    }
+
+    protected void setBytesRead(final int bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+}
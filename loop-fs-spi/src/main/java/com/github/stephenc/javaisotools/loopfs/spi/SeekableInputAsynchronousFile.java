@@ -0,0 +1,94 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A Seekable Input File read through an {@link AsynchronousFileChannel}. Asynchronous reads return at once and
+ * complete on the channel's threads, so any number of them can be outstanding, which lets a fast device such as an
+ * NVMe drive work on many requests in parallel. The blocking reads wait for an asynchronous read to complete.
+ */
+public class SeekableInputAsynchronousFile implements AsynchronousSeekableInput {
+
+    private final AsynchronousFileChannel channel;
+
+    private long position;
+
+    public SeekableInputAsynchronousFile(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * @param executor the threads that run the channel's reads and completions, or null for the default pool
+     */
+    public SeekableInputAsynchronousFile(File file, ExecutorService executor) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("File does not exist: " + file);
+        }
+        this.channel = AsynchronousFileChannel.open(file.toPath(), Collections.singleton(StandardOpenOption.READ),
+                executor);
+    }
+
+    public synchronized void seek(long pos) throws IOException {
+        this.position = pos;
+    }
+
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        final int read = read(this.position, b, off, len);
+        if (read > 0) {
+            this.position += read;
+        }
+        return read;
+    }
+
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        return read(pos, ByteBuffer.wrap(b, off, len));
+    }
+
+    public int read(long pos, ByteBuffer dst) throws IOException {
+        try {
+            return this.channel.read(dst, pos).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    public CompletableFuture<Integer> readAsync(long pos, ByteBuffer dst) {
+        final CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+        try {
+            this.channel.read(dst, pos, null, new CompletionHandler<Integer, Object>() {
+                public void completed(Integer read, Object attachment) {
+                    result.complete(read);
+                }
+
+                public void failed(Throwable ex, Object attachment) {
+                    result.completeExceptionally(ex);
+                }
+            });
+        } catch (RuntimeException ex) {
+            // e.g. the channel has been closed
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.io.IOException;
+
+/**
+ * Opens new {@link SeekableInput}s over the same data, so that a {@link SeekableInputPool} can give each concurrent
+ * reader a handle of its own.
+ */
+public interface SeekableInputFactory {
+
+    /**
+     * Opens a new input positioned at the start of the data.
+     */
+    SeekableInput open() throws IOException;
+}
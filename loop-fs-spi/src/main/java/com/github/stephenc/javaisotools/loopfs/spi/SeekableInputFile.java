@@ -4,30 +4,50 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
- * A Seekable Input File which wraps around a File object
+ * A Seekable Input File which wraps around a File object. Positional reads go through the file's {@link FileChannel}
+ * and may be issued concurrently; note that interrupting a thread blocked in one closes the channel. Transfers use
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
  */
-public class SeekableInputFile implements SeekableInput {
+public class SeekableInputFile implements TransferableSeekableInput {
 
-    private RandomAccessFile channel;
+    private RandomAccessFile file;
+
+    private FileChannel channel;
 
     public SeekableInputFile(File file) throws IOException {
         if (!file.exists()) {
             throw new FileNotFoundException("File does not exist: " + file);
         }
-        this.channel = new RandomAccessFile(file, "r");
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
     }
 
     public void seek(long pos) throws IOException {
-        this.channel.seek(pos);
+        this.file.seek(pos);
     }
 
     public int read(byte[] b, int off, int len) throws IOException {
-        return this.channel.read(b, off, len);
+        return this.file.read(b, off, len);
+    }
+
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        return this.channel.read(ByteBuffer.wrap(b, off, len), pos);
+    }
+
+    public int read(long pos, ByteBuffer dst) throws IOException {
+        return this.channel.read(dst, pos);
+    }
+
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        return this.channel.transferTo(pos, count, target);
     }
 
     public void close() throws IOException {
-        this.channel.close();
+        this.file.close();
     }
 }
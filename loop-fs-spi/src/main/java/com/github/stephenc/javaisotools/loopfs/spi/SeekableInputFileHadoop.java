@@ -4,11 +4,13 @@ import org.apache.hadoop.fs.FSDataInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
- * A Seekable Input File to work with Apache Hadoop HDFS
+ * A Seekable Input File to work with Apache Hadoop HDFS. Positional reads use the stream's
+ * {@link org.apache.hadoop.fs.PositionedReadable} support.
  */
-public class SeekableInputFileHadoop implements SeekableInput {
+public class SeekableInputFileHadoop implements PositionalSeekableInput {
 
     private FSDataInputStream channel;
 
@@ -24,6 +26,26 @@ public class SeekableInputFileHadoop implements SeekableInput {
         return this.channel.read(b, off, len);
     }
 
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        return this.channel.read(pos, b, off, len);
+    }
+
+    public int read(long pos, ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            final int read = read(pos, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+        final byte[] buffer = new byte[dst.remaining()];
+        final int read = read(pos, buffer, 0, buffer.length);
+        if (read > 0) {
+            dst.put(buffer, 0, read);
+        }
+        return read;
+    }
+
     public void close() throws IOException {
         this.channel.close();
     }
@@ -0,0 +1,604 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import com.github.stephenc.javaisotools.loopfs.api.LoopFileSystemException;
+
+/**
+ * A Seekable Input over a gzip compressed image, which reads at random through an index of the gzip members.
+ * <p/>
+ * A gzip file may hold any number of members one after the other, each of which can be decompressed on its own, and
+ * <code>gunzip</code> decompresses them all as one stream. The index records where each member starts in the
+ * compressed and the uncompressed data, so a read only decompresses the member it falls in. Images written by
+ * {@link #compress(File, File, int)} are split into members of a fixed size; other gzip files are indexed by
+ * decompressing them once, and a file written by plain <code>gzip</code> is a single member, which can still be read
+ * but every backwards seek starts decompressing again from the start. The index is kept next to the image, with
+ * {@link #INDEX_SUFFIX} appended to its name, and rebuilt if the image changes.
+ * <p/>
+ * Members up to {@link #MAX_CACHED_MEMBER_SIZE} bytes, or the limit given to the constructor, are decompressed whole
+ * into an {@link LruBlockCache}, so reads close to each other cost a copy; larger members are read through a single
+ * forward-only cursor.
+ */
+public class SeekableInputGzip implements PositionalSeekableInput {
+
+    /**
+     * The suffix appended to the name of the image to name its index.
+     */
+    public static final String INDEX_SUFFIX = ".gzi";
+
+    /**
+     * The default uncompressed size of the members written by {@link #compress(File, File, int)}.
+     */
+    public static final int DEFAULT_MEMBER_SIZE = 1024 * 1024;
+
+    /**
+     * The default number of decompressed members kept in the cache.
+     */
+    public static final int DEFAULT_CACHED_MEMBERS = 16;
+
+    /**
+     * The default size of the largest member that is decompressed whole.
+     */
+    public static final int MAX_CACHED_MEMBER_SIZE = 16 * 1024 * 1024;
+
+    private static final int INDEX_MAGIC = 0x475a4958; // "GZIX"
+    private static final int INDEX_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int FHCRC = 0x02;
+    private static final int FEXTRA = 0x04;
+    private static final int FNAME = 0x08;
+    private static final int FCOMMENT = 0x10;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    // the compressed and uncompressed offsets of each member, followed by the compressed and uncompressed lengths
+    private final long[] compressedOffsets;
+    private final long[] offsets;
+
+    private final BlockCache members;
+    private final long maxCachedMemberSize;
+
+    // reads members too large for the cache, guarded by this
+    private Cursor cursor;
+
+    private long position;
+
+    public SeekableInputGzip(File file) throws IOException {
+        this(file, new File(file.getPath() + INDEX_SUFFIX), DEFAULT_CACHED_MEMBERS);
+    }
+
+    /**
+     * @param file          the compressed image
+     * @param indexFile     where the index is kept, or null to build it every time
+     * @param cachedMembers the number of decompressed members kept in the cache
+     */
+    public SeekableInputGzip(File file, File indexFile, int cachedMembers) throws IOException {
+        this(file, indexFile, cachedMembers, MAX_CACHED_MEMBER_SIZE);
+    }
+
+    /**
+     * @param file                the compressed image
+     * @param indexFile           where the index is kept, or null to build it every time
+     * @param cachedMembers       the number of decompressed members kept in the cache
+     * @param maxCachedMemberSize the size of the largest member that is decompressed whole and cached, larger members
+     *                            are read through a forward-only cursor
+     */
+    public SeekableInputGzip(File file, File indexFile, int cachedMembers, int maxCachedMemberSize)
+            throws IOException {
+        if (maxCachedMemberSize < 0) {
+            throw new IllegalArgumentException("'maxCachedMemberSize' must be >= 0");
+        }
+        if (!file.exists()) {
+            throw new FileNotFoundException("File does not exist: " + file);
+        }
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.members = new LruBlockCache(cachedMembers);
+        this.maxCachedMemberSize = maxCachedMemberSize;
+
+        try {
+            long[][] index = (null != indexFile) ? loadIndex(indexFile, file) : null;
+            if (null == index) {
+                index = buildIndex();
+                if (null != indexFile) {
+                    try {
+                        saveIndex(indexFile, file, index);
+                    } catch (IOException ex) {
+                        // the index only saves time, e.g. the directory may be read-only
+                    }
+                }
+            }
+            this.compressedOffsets = index[0];
+            this.offsets = index[1];
+        } catch (IOException ex) {
+            this.file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the uncompressed length of the image.
+     */
+    public long length() {
+        return this.offsets[this.offsets.length - 1];
+    }
+
+    /**
+     * Returns the number of gzip members in the image.
+     */
+    public int getMemberCount() {
+        return this.offsets.length - 1;
+    }
+
+    public void seek(long pos) throws IOException {
+        this.position = pos;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = read(this.position, b, off, len);
+        if (read > 0) {
+            this.position += read;
+        }
+        return read;
+    }
+
+    public int read(long pos, ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            final int read = read(pos, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+        final byte[] buffer = new byte[Math.min(dst.remaining(), BUFFER_SIZE)];
+        final int read = read(pos, buffer, 0, buffer.length);
+        if (read > 0) {
+            dst.put(buffer, 0, read);
+        }
+        return read;
+    }
+
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        if (pos >= length()) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        // the member holding pos, skipping empty members
+        int member = Arrays.binarySearch(this.offsets, pos);
+        if (member < 0) {
+            member = -member - 2;
+        }
+        while (this.offsets[member + 1] == pos) {
+            member++;
+        }
+
+        final long memberLength = this.offsets[member + 1] - this.offsets[member];
+        final long offset = pos - this.offsets[member];
+        final int count = (int) Math.min(len, memberLength - offset);
+
+        if (memberLength <= this.maxCachedMemberSize) {
+            byte[] data = this.members.get(member);
+            if (null == data) {
+                data = new byte[(int) memberLength];
+                final Cursor whole = new Cursor(member);
+                try {
+                    whole.readFully(data, 0, data.length);
+                } finally {
+                    whole.close();
+                }
+                this.members.put(member, data);
+            }
+            System.arraycopy(data, (int) offset, b, off, count);
+            return count;
+        }
+
+        synchronized (this) {
+            if (null == this.cursor || this.cursor.member != member || this.cursor.offset > offset) {
+                if (null != this.cursor) {
+                    this.cursor.close();
+                }
+                this.cursor = new Cursor(member);
+            }
+            this.cursor.skip(offset - this.cursor.offset);
+            this.cursor.readFully(b, off, count);
+            return count;
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (this) {
+            if (null != this.cursor) {
+                this.cursor.close();
+                this.cursor = null;
+            }
+        }
+        this.members.clear();
+        this.file.close();
+    }
+
+    /**
+     * Compresses <code>source</code> into <code>target</code> as a gzip file of members holding
+     * <code>memberSize</code> bytes each, and writes its index next to it. The result decompresses with any gzip tool.
+     */
+    public static void compress(File source, File target, int memberSize) throws IOException {
+        if (memberSize <= 0) {
+            throw new IllegalArgumentException("'memberSize' must be > 0");
+        }
+
+        final long[] compressed = new long[(int) (source.length() / memberSize) + 2];
+        final long[] uncompressed = new long[compressed.length];
+        int count = 0;
+
+        final InputStream in = new FileInputStream(source);
+        try {
+            final CountingOutputStream out = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE));
+            try {
+                final byte[] buffer = new byte[memberSize];
+                long total = 0;
+                int read;
+                // an empty image still gets a member, as a gzip file cannot be empty
+                while ((read = readFully(in, buffer)) > 0 || count == 0) {
+                    compressed[count] = out.count;
+                    uncompressed[count++] = total;
+                    final GZIPOutputStream member = new GZIPOutputStream(out, BUFFER_SIZE);
+                    member.write(buffer, 0, read);
+                    member.finish();
+                    total += read;
+                }
+                out.flush();
+                compressed[count] = out.count;
+                uncompressed[count] = total;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        saveIndex(new File(target.getPath() + INDEX_SUFFIX), target,
+                new long[][] {Arrays.copyOf(compressed, count + 1), Arrays.copyOf(uncompressed, count + 1)});
+    }
+
+    private static int readFully(final InputStream in, final byte[] buffer) throws IOException {
+        int done = 0;
+        int read;
+        while (done < buffer.length && (read = in.read(buffer, done, buffer.length - done)) > 0) {
+            done += read;
+        }
+        return done;
+    }
+
+    /**
+     * Finds the members by decompressing the whole file once, checking each member's CRC and length on the way.
+     */
+    private long[][] buildIndex() throws IOException {
+        final long fileLength = this.channel.size();
+        long[] compressed = new long[16];
+        long[] uncompressed = new long[16];
+        int count = 0;
+        long in = 0;
+        long out = 0;
+
+        final byte[] input = new byte[BUFFER_SIZE];
+        final byte[] output = new byte[BUFFER_SIZE];
+        final CRC32 crc = new CRC32();
+
+        while (in < fileLength) {
+            final ChannelInputStream header = new ChannelInputStream(this.channel, in);
+            if (!readHeader(header, count > 0)) {
+                // trailing padding after the last member
+                break;
+            }
+
+            if (count + 1 >= compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                uncompressed = Arrays.copyOf(uncompressed, uncompressed.length * 2);
+            }
+            compressed[count] = in;
+            uncompressed[count++] = out;
+
+            // inflate the member to find where it ends
+            long pos = header.position;
+            final Inflater inflater = new Inflater(true);
+            crc.reset();
+            long memberLength = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        final int read = this.channel.read(ByteBuffer.wrap(input), pos);
+                        if (read <= 0) {
+                            throw new EOFException("Truncated gzip member at " + compressed[count - 1]);
+                        }
+                        pos += read;
+                        inflater.setInput(input, 0, read);
+                    }
+                    final int inflated = inflater.inflate(output);
+                    crc.update(output, 0, inflated);
+                    memberLength += inflated;
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new LoopFileSystemException("Invalid gzip member at " + compressed[count - 1]);
+                    }
+                }
+                pos -= inflater.getRemaining();
+            } catch (DataFormatException ex) {
+                throw new LoopFileSystemException("Invalid gzip member at " + compressed[count - 1], ex);
+            } finally {
+                inflater.end();
+            }
+
+            final DataInputStream trailer = new DataInputStream(new ChannelInputStream(this.channel, pos));
+            final long expectedCrc = Integer.reverseBytes(trailer.readInt()) & 0xffffffffL;
+            final long expectedLength = Integer.reverseBytes(trailer.readInt()) & 0xffffffffL;
+            if (expectedCrc != crc.getValue() || expectedLength != (memberLength & 0xffffffffL)) {
+                throw new LoopFileSystemException("Corrupt gzip member at " + compressed[count - 1]);
+            }
+
+            in = pos + 8;
+            out += memberLength;
+        }
+
+        if (count == 0) {
+            throw new LoopFileSystemException("Not a gzip file");
+        }
+        compressed[count] = in;
+        uncompressed[count] = out;
+        return new long[][] {Arrays.copyOf(compressed, count + 1), Arrays.copyOf(uncompressed, count + 1)};
+    }
+
+    /**
+     * Reads a member header, leaving <code>in</code> at the start of the compressed data.
+     *
+     * @param lenient true to return false rather than fail if there is no header, as after the last member
+     * @return false if there is no header
+     */
+    private static boolean readHeader(final InputStream in, final boolean lenient) throws IOException {
+        final int id1 = in.read();
+        final int id2 = in.read();
+        final int method = in.read();
+        if (id1 != 0x1f || id2 != 0x8b || method != 8) {
+            if (lenient) {
+                return false;
+            }
+            throw new LoopFileSystemException("Not a gzip file");
+        }
+
+        final int flags = in.read();
+        // mtime, xfl, os
+        skipFully(in, 6);
+        if ((flags & FEXTRA) != 0) {
+            final int length = in.read() | (in.read() << 8);
+            skipFully(in, length);
+        }
+        if ((flags & FNAME) != 0) {
+            skipString(in);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipString(in);
+        }
+        if ((flags & FHCRC) != 0) {
+            skipFully(in, 2);
+        }
+        return true;
+    }
+
+    private static void skipString(final InputStream in) throws IOException {
+        int c;
+        while ((c = in.read()) != 0) {
+            if (c < 0) {
+                throw new EOFException("Truncated gzip header");
+            }
+        }
+    }
+
+    private static void skipFully(final InputStream in, final long count) throws IOException {
+        for (long i = 0; i < count; i++) {
+            if (in.read() < 0) {
+                throw new EOFException("Truncated gzip header");
+            }
+        }
+    }
+
+    /**
+     * Loads the index of <code>file</code>, or returns null if there is none or it belongs to another version.
+     */
+    private static long[][] loadIndex(final File indexFile, final File file) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readLong() != file.length()
+                    || in.readLong() != file.lastModified()) {
+                return null;
+            }
+            final int count = in.readInt();
+            if (count < 2 || count > indexFile.length() / 16) {
+                throw new LoopFileSystemException("Corrupt gzip index " + indexFile);
+            }
+            final long[][] index = new long[2][count];
+            for (int i = 0; i < count; i++) {
+                index[0][i] = in.readLong();
+                index[1][i] = in.readLong();
+            }
+            return index;
+        } catch (EOFException ex) {
+            throw new LoopFileSystemException("Corrupt gzip index " + indexFile, ex);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void saveIndex(final File indexFile, final File file, final long[][] index) throws IOException {
+        final File temp = new File(indexFile.getPath() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(file.length());
+                out.writeLong(file.lastModified());
+                out.writeInt(index[0].length);
+                for (int i = 0; i < index[0].length; i++) {
+                    out.writeLong(index[0][i]);
+                    out.writeLong(index[1][i]);
+                }
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            // only left behind if writing or moving it failed
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Decompresses a member from its start onwards.
+     */
+    private final class Cursor {
+
+        private final int member;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] input = new byte[BUFFER_SIZE];
+        private long compressedPosition;
+
+        // the uncompressed offset within the member
+        private long offset;
+
+        Cursor(final int member) throws IOException {
+            this.member = member;
+            final ChannelInputStream header = new ChannelInputStream(SeekableInputGzip.this.channel,
+                    SeekableInputGzip.this.compressedOffsets[member]);
+            readHeader(header, false);
+            this.compressedPosition = header.position;
+        }
+
+        void readFully(final byte[] b, final int off, final int len) throws IOException {
+            int done = 0;
+            try {
+                while (done < len) {
+                    if (this.inflater.needsInput()) {
+                        final int read = SeekableInputGzip.this.channel.read(ByteBuffer.wrap(this.input),
+                                this.compressedPosition);
+                        if (read <= 0) {
+                            throw new EOFException("Truncated gzip member " + this.member);
+                        }
+                        this.compressedPosition += read;
+                        this.inflater.setInput(this.input, 0, read);
+                    }
+                    final int inflated = this.inflater.inflate(b, off + done, len - done);
+                    if (inflated == 0 && (this.inflater.finished() || this.inflater.needsDictionary())) {
+                        throw new EOFException("Gzip member " + this.member + " is shorter than its index says");
+                    }
+                    done += inflated;
+                }
+            } catch (DataFormatException ex) {
+                throw new LoopFileSystemException("Invalid gzip member " + this.member, ex);
+            }
+            this.offset += len;
+        }
+
+        void skip(final long count) throws IOException {
+            final byte[] buffer = new byte[(int) Math.min(count, BUFFER_SIZE)];
+            long remaining = count;
+            while (remaining > 0) {
+                final int chunk = (int) Math.min(remaining, buffer.length);
+                readFully(buffer, 0, chunk);
+                remaining -= chunk;
+            }
+        }
+
+        void close() {
+            this.inflater.end();
+        }
+    }
+
+    /**
+     * Reads a file channel from a position onwards without moving the channel's own position.
+     */
+    private static final class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(512);
+        private long position;
+
+        ChannelInputStream(final FileChannel channel, final long position) {
+            this.channel = channel;
+            this.position = position;
+            this.buffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.buffer.hasRemaining()) {
+                this.buffer.clear();
+                final int read = this.channel.read(this.buffer, this.position);
+                this.buffer.flip();
+                if (read <= 0) {
+                    return -1;
+                }
+            }
+            this.position++;
+            return this.buffer.get() & 0xff;
+        }
+    }
+
+    /**
+     * Counts the bytes written, without closing the stream when a member is finished.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import com.github.stephenc.javaisotools.loopfs.api.LoopFileSystemException;
+
+/**
+ * A Seekable Input over a file served by an HTTP server that supports range requests, so that single files can be
+ * read out of an image without downloading all of it.
+ * <p/>
+ * The file is read in large aligned blocks that are kept in an {@link LruBlockCache}. Whenever a block is fetched, or
+ * a block that was fetched ahead is first read, the following blocks are fetched ahead in parallel by a small pool of
+ * background threads, so sequential reads rarely wait for the network. Concurrent reads of the same block share a
+ * single request. Every request after the first is conditional on the file being unchanged, using its ETag or last
+ * modification time, and fails if it has changed.
+ */
+public class SeekableInputHttp implements PositionalSeekableInput {
+
+    /**
+     * The default size of the blocks fetched with each request.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The default number of blocks kept in the cache.
+     */
+    public static final int DEFAULT_CACHED_BLOCKS = 64;
+
+    /**
+     * The default number of blocks fetched ahead of the reads.
+     */
+    public static final int DEFAULT_PREFETCH_BLOCKS = 4;
+
+    /**
+     * The connect and read timeout of the requests, in milliseconds.
+     */
+    public static final int DEFAULT_TIMEOUT = 30 * 1000;
+
+    private final URL url;
+    private final int blockSize;
+    private final int prefetchBlocks;
+
+    private final long length;
+    private final String validator;
+
+    private final BlockCache cache;
+    private final ConcurrentHashMap<Long, Future<byte[]>> inFlight = new ConcurrentHashMap<Long, Future<byte[]>>();
+    private final Set<Long> prefetched = ConcurrentHashMap.newKeySet();
+    private final ExecutorService prefetcher;
+
+    private long position;
+
+    public SeekableInputHttp(URL url) throws IOException {
+        this(url, DEFAULT_BLOCK_SIZE, DEFAULT_CACHED_BLOCKS, DEFAULT_PREFETCH_BLOCKS);
+    }
+
+    /**
+     * @param url            the location of the image
+     * @param blockSize      the number of bytes fetched with each request
+     * @param cachedBlocks   the number of blocks kept in the cache
+     * @param prefetchBlocks the number of blocks fetched ahead of the reads, which is also the number of threads
+     *                       fetching them; 0 to only fetch blocks as they are read
+     */
+    public SeekableInputHttp(URL url, int blockSize, int cachedBlocks, int prefetchBlocks) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("'blockSize' must be > 0");
+        }
+        if (prefetchBlocks < 0) {
+            throw new IllegalArgumentException("'prefetchBlocks' must be >= 0");
+        }
+        this.url = url;
+        this.blockSize = blockSize;
+        this.prefetchBlocks = prefetchBlocks;
+        this.cache = new LruBlockCache(cachedBlocks);
+
+        // ask for the first byte, which tells us both the length and whether ranges are supported
+        final HttpURLConnection connection = open(0, 0, null);
+        try {
+            final String range = checkPartial(connection, 0);
+            this.length = Long.parseLong(range.substring(range.lastIndexOf('/') + 1).trim());
+            final String etag = connection.getHeaderField("ETag");
+            this.validator = (null != etag && !etag.startsWith("W/")) ? etag
+                    : connection.getHeaderField("Last-Modified");
+        } catch (NumberFormatException ex) {
+            throw new LoopFileSystemException("Unknown length of " + url, ex);
+        } finally {
+            drain(connection);
+        }
+
+        this.prefetcher = (prefetchBlocks > 0) ? Executors.newFixedThreadPool(prefetchBlocks, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "prefetch " + SeekableInputHttp.this.url);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+    }
+
+    /**
+     * Returns the length of the file.
+     */
+    public long length() {
+        return this.length;
+    }
+
+    /**
+     * Returns the counters of the block cache.
+     */
+    public CacheStats getCacheStats() {
+        return this.cache.getStats();
+    }
+
+    public void seek(long pos) throws IOException {
+        this.position = pos;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = read(this.position, b, off, len);
+        if (read > 0) {
+            this.position += read;
+        }
+        return read;
+    }
+
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        if (pos >= this.length) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        final long block = pos / this.blockSize;
+        final int offset = (int) (pos - block * this.blockSize);
+        final byte[] data = getBlock(block);
+        final int count = Math.min(len, data.length - offset);
+        System.arraycopy(data, offset, b, off, count);
+        return count;
+    }
+
+    public int read(long pos, ByteBuffer dst) throws IOException {
+        if (pos >= this.length) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        final long block = pos / this.blockSize;
+        final int offset = (int) (pos - block * this.blockSize);
+        final byte[] data = getBlock(block);
+        final int count = Math.min(dst.remaining(), data.length - offset);
+        dst.put(data, offset, count);
+        return count;
+    }
+
+    public void close() throws IOException {
+        if (null != this.prefetcher) {
+            this.prefetcher.shutdownNow();
+        }
+        this.cache.clear();
+    }
+
+    /**
+     * Returns the contents of a block, fetching it if it is not cached, and fetches the following blocks ahead when
+     * the reads move into new territory.
+     */
+    private byte[] getBlock(final long block) throws IOException {
+        byte[] data = this.cache.get(block);
+        if (null == data) {
+            data = fetch(block);
+            prefetch(block);
+        } else if (this.prefetched.remove(block)) {
+            prefetch(block);
+        }
+        return data;
+    }
+
+    /**
+     * Fetches a block in the calling thread, or waits for the request already fetching it.
+     */
+    private byte[] fetch(final long block) throws IOException {
+        final Future<byte[]> existing = this.inFlight.get(block);
+        if (null != existing) {
+            try {
+                return await(existing);
+            } catch (IOException ex) {
+                // most likely a failed prefetch, try again below
+            }
+        }
+
+        final Fetch task = new Fetch(block);
+        final Future<byte[]> other = this.inFlight.putIfAbsent(block, task);
+        if (null != other) {
+            return await(other);
+        }
+        task.run();
+        return await(task);
+    }
+
+    private static byte[] await(final Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new LoopFileSystemException(ex.getCause());
+        }
+    }
+
+    /**
+     * Fetches the blocks after <code>block</code> in the background, unless they are already on their way.
+     */
+    private void prefetch(final long block) {
+        if (null == this.prefetcher) {
+            return;
+        }
+        // forget blocks that were fetched ahead and then evicted without being read
+        if (this.prefetched.size() > 2 * this.prefetchBlocks) {
+            this.prefetched.clear();
+        }
+        final long last = Math.min(block + this.prefetchBlocks, (this.length - 1) / this.blockSize);
+        for (long next = block + 1; next <= last; next++) {
+            if (this.prefetched.contains(next)) {
+                continue;
+            }
+            final Fetch task = new Fetch(next);
+            if (null == this.inFlight.putIfAbsent(next, task)) {
+                this.prefetched.add(next);
+                try {
+                    this.prefetcher.execute(task);
+                } catch (RejectedExecutionException ex) {
+                    // closed
+                    this.inFlight.remove(next, task);
+                    return;
+                }
+            }
+        }
+    }
+
+    private byte[] download(final long block) throws IOException {
+        final long start = block * this.blockSize;
+        final int count = (int) Math.min(this.blockSize, this.length - start);
+        final HttpURLConnection connection = open(start, start + count - 1, this.validator);
+        try {
+            checkPartial(connection, start);
+            final byte[] data = new byte[count];
+            final InputStream in = connection.getInputStream();
+            int done = 0;
+            while (done < count) {
+                final int read = in.read(data, done, count - done);
+                if (read < 0) {
+                    throw new EOFException("Short response for bytes " + start + "-" + (start + count - 1) + " of "
+                            + this.url);
+                }
+                done += read;
+            }
+            return data;
+        } finally {
+            drain(connection);
+        }
+    }
+
+    private HttpURLConnection open(final long first, final long last, final String validator) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) this.url.openConnection();
+        connection.setConnectTimeout(DEFAULT_TIMEOUT);
+        connection.setReadTimeout(DEFAULT_TIMEOUT);
+        connection.setRequestProperty("Range", "bytes=" + first + "-" + last);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (null != validator) {
+            // a changed file is sent whole instead of the range, which checkPartial refuses
+            connection.setRequestProperty("If-Range", validator);
+        }
+        return connection;
+    }
+
+    /**
+     * Checks that the response holds the range starting at <code>start</code>.
+     *
+     * @return the Content-Range header
+     */
+    private String checkPartial(final HttpURLConnection connection, final long start) throws IOException {
+        final int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_PARTIAL) {
+            // do not read a response that may be the whole image
+            connection.disconnect();
+        }
+        if (status == HttpURLConnection.HTTP_OK) {
+            throw new LoopFileSystemException((null == this.validator ? "The server does not support ranges for "
+                    : "The file has changed: ") + this.url);
+        }
+        if (status != HttpURLConnection.HTTP_PARTIAL) {
+            throw new LoopFileSystemException("HTTP " + status + " " + connection.getResponseMessage() + " for "
+                    + this.url);
+        }
+        final String range = connection.getHeaderField("Content-Range");
+        if (null == range || !range.startsWith("bytes " + start + "-")) {
+            throw new LoopFileSystemException("Unexpected Content-Range '" + range + "' from " + this.url);
+        }
+        return range;
+    }
+
+    /**
+     * Reads what is left of the response, so that the connection can be reused.
+     */
+    private static void drain(final HttpURLConnection connection) {
+        try {
+            final InputStream in = connection.getInputStream();
+            final byte[] buffer = new byte[4096];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+            in.close();
+        } catch (IOException ex) {
+            final InputStream error = connection.getErrorStream();
+            if (null != error) {
+                try {
+                    error.close();
+                } catch (IOException ignored) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * A request for a block, which caches the block before it is no longer in flight.
+     */
+    private final class Fetch extends FutureTask<byte[]> {
+
+        private final long block;
+
+        Fetch(final long block) {
+            super(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    return download(block);
+                }
+            });
+            this.block = block;
+        }
+
+        @Override
+        protected void set(final byte[] data) {
+            SeekableInputHttp.this.cache.put(this.block, data);
+            super.set(data);
+        }
+
+        @Override
+        protected void done() {
+            SeekableInputHttp.this.inFlight.remove(this.block, this);
+        }
+    }
+}
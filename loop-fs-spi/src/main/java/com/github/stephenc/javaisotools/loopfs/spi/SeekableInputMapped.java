@@ -0,0 +1,159 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A Seekable Input File which memory-maps the whole file. A single {@link MappedByteBuffer} is limited to 2GB, so the
+ * file is mapped as a series of fixed-size windows and reads that straddle two windows are split. Reads are plain
+ * memory copies rather than system calls, which pays off when many small entries are read from a large image.
+ * Transfers write slices of the mapping straight to the target channel.
+ */
+public class SeekableInputMapped implements TransferableSeekableInput {
+
+    /**
+     * The default size of each mapped window, 1GB.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final long size;
+
+    private final int windowSize;
+
+    private volatile MappedByteBuffer[] windows;
+
+    // file pointer for the stateful seek/read methods
+    private long pointer;
+
+    public SeekableInputMapped(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    public SeekableInputMapped(File file, int windowSize) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("File does not exist: " + file);
+        }
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("'windowSize' must be > 0");
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mappings stay valid after the channel is closed
+            final FileChannel channel = raf.getChannel();
+            this.size = channel.size();
+            this.windowSize = windowSize;
+            this.windows = new MappedByteBuffer[(int) ((this.size + windowSize - 1) / windowSize)];
+            for (int i = 0; i < this.windows.length; i++) {
+                final long start = (long) i * windowSize;
+                this.windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(windowSize, this.size - start));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void seek(long pos) throws IOException {
+        this.pointer = pos;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = read(this.pointer, b, off, len);
+        if (read > 0) {
+            this.pointer += read;
+        }
+        return read;
+    }
+
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        final MappedByteBuffer[] windows = ensureOpen();
+        if (pos >= this.size) {
+            return -1;
+        }
+
+        int total = 0;
+        while (len > 0 && pos < this.size) {
+            final ByteBuffer window = window(windows, pos);
+            final int count = Math.min(len, window.remaining());
+            window.get(b, off, count);
+            pos += count;
+            off += count;
+            len -= count;
+            total += count;
+        }
+        return total;
+    }
+
+    public int read(long pos, ByteBuffer dst) throws IOException {
+        final MappedByteBuffer[] windows = ensureOpen();
+        if (pos >= this.size) {
+            return -1;
+        }
+
+        int total = 0;
+        while (dst.hasRemaining() && pos < this.size) {
+            final ByteBuffer window = window(windows, pos);
+            final int count = Math.min(dst.remaining(), window.remaining());
+            window.limit(window.position() + count);
+            dst.put(window);
+            pos += count;
+            total += count;
+        }
+        return total;
+    }
+
+    public long transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        final MappedByteBuffer[] windows = ensureOpen();
+
+        long total = 0;
+        while (count > 0 && pos < this.size) {
+            final ByteBuffer window = window(windows, pos);
+            window.limit((int) Math.min(window.limit(), window.position() + count));
+            final int written = target.write(window);
+            if (written <= 0) {
+                break;
+            }
+            pos += written;
+            count -= written;
+            total += written;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the size of the mapped file in bytes.
+     */
+    public long size() {
+        return this.size;
+    }
+
+    public void close() throws IOException {
+        // the mappings are released once the buffers are garbage collected
+        this.windows = null;
+    }
+
+    /**
+     * Returns a private view of the window containing <code>pos</code>, positioned at <code>pos</code>. Each read gets
+     * its own view so that concurrent readers never share buffer positions.
+     */
+    private ByteBuffer window(MappedByteBuffer[] windows, long pos) {
+        final ByteBuffer window = windows[(int) (pos / this.windowSize)].duplicate();
+        window.position((int) (pos % this.windowSize));
+        return window;
+    }
+
+    private MappedByteBuffer[] ensureOpen() throws IOException {
+        final MappedByteBuffer[] windows = this.windows;
+        if (null == windows) {
+            throw new IOException("Mapped file has been closed");
+        }
+        return windows;
+    }
+}
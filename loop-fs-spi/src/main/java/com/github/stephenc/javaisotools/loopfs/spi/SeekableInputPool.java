@@ -0,0 +1,337 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.github.stephenc.javaisotools.loopfs.api.LoopFileSystemException;
+
+/**
+ * A Seekable Input over a bounded pool of handles opened by a {@link SeekableInputFactory}, for inputs that only
+ * support a stateful seek followed by a read. Every positional read borrows a handle of its own, so concurrent readers
+ * do not queue behind a single file pointer; when all handles are in use, readers wait for one to be returned.
+ * <p/>
+ * Handles are opened as they are needed and closed again once they have been idle for longer than the idle timeout.
+ * A handle that fails a read is closed rather than returned to the pool.
+ */
+public class SeekableInputPool implements PositionalSeekableInput {
+
+    /**
+     * The default largest number of open handles.
+     */
+    public static final int DEFAULT_MAX_HANDLES = 8;
+
+    /**
+     * The default time after which an idle handle is closed, in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    private final SeekableInputFactory factory;
+    private final int maxHandles;
+    private final long idleTimeoutNanos;
+
+    // the idle handles, most recently returned first
+    private final ArrayDeque<Handle> idle = new ArrayDeque<Handle>();
+    private int handles;
+    private boolean closed;
+
+    private long borrowCount;
+    private long openCount;
+    private long evictionCount;
+    private long waitCount;
+    private long waitNanos;
+
+    private final ScheduledFuture<?> evictor;
+
+    private long position;
+
+    public SeekableInputPool(SeekableInputFactory factory) {
+        this(factory, DEFAULT_MAX_HANDLES, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param factory     opens the handles
+     * @param maxHandles  the largest number of handles open at once
+     * @param idleTimeout the time after which an idle handle is closed, in milliseconds; 0 to keep idle handles open
+     *                    until the pool is closed
+     */
+    public SeekableInputPool(SeekableInputFactory factory, int maxHandles, long idleTimeout) {
+        if (null == factory) {
+            throw new IllegalArgumentException("'factory' must not be null");
+        }
+        if (maxHandles <= 0) {
+            throw new IllegalArgumentException("'maxHandles' must be > 0");
+        }
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("'idleTimeout' must be >= 0");
+        }
+        this.factory = factory;
+        this.maxHandles = maxHandles;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.evictor = (idleTimeout > 0) ? Evictor.schedule(this, idleTimeout) : null;
+    }
+
+    /**
+     * Returns the counters of the pool.
+     */
+    public synchronized PoolStats getStats() {
+        return new PoolStats(this.borrowCount, this.openCount, this.evictionCount, this.waitCount, this.waitNanos,
+                this.handles, this.idle.size(), this.maxHandles);
+    }
+
+    public synchronized void seek(long pos) throws IOException {
+        this.position = pos;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        // do not hold the pool's lock while reading, other readers need it to borrow and return handles
+        final long pos;
+        synchronized (this) {
+            pos = this.position;
+        }
+        final int read = read(pos, b, off, len);
+        if (read > 0) {
+            synchronized (this) {
+                this.position = pos + read;
+            }
+        }
+        return read;
+    }
+
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        final Handle handle = borrow();
+        boolean failed = true;
+        try {
+            // a handle that already stands at pos, such as after a sequential read, need not seek again
+            if (handle.position != pos) {
+                handle.position = -1;
+                handle.input.seek(pos);
+            }
+            final int read = handle.input.read(b, off, len);
+            handle.position = (read > 0) ? pos + read : pos;
+            failed = false;
+            return read;
+        } finally {
+            release(handle, failed);
+        }
+    }
+
+    public int read(long pos, ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (dst.hasArray()) {
+            final int read = read(pos, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+        final byte[] buffer = new byte[dst.remaining()];
+        final int read = read(pos, buffer, 0, buffer.length);
+        if (read > 0) {
+            dst.put(buffer, 0, read);
+        }
+        return read;
+    }
+
+    /**
+     * Closes the idle handles and the handles in use as soon as they are returned.
+     */
+    public void close() throws IOException {
+        final List<Handle> closing;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.handles -= this.idle.size();
+            closing = new ArrayList<Handle>(this.idle);
+            this.idle.clear();
+            notifyAll();
+        }
+        if (null != this.evictor) {
+            this.evictor.cancel(false);
+        }
+        closeAll(closing);
+    }
+
+    /**
+     * Closes the handles that have been idle for longer than the idle timeout. This happens periodically in the
+     * background, so there is usually no need to call it.
+     */
+    public void evictIdle() {
+        if (this.idleTimeoutNanos == 0) {
+            return;
+        }
+        final List<Handle> closing = new ArrayList<Handle>();
+        synchronized (this) {
+            final long now = System.nanoTime();
+            // the least recently returned handles are at the tail
+            for (Iterator<Handle> it = this.idle.descendingIterator(); it.hasNext(); ) {
+                final Handle handle = it.next();
+                if (now - handle.returned < this.idleTimeoutNanos) {
+                    break;
+                }
+                it.remove();
+                closing.add(handle);
+            }
+            this.handles -= closing.size();
+            this.evictionCount += closing.size();
+        }
+        closeAll(closing);
+    }
+
+    /**
+     * Takes an idle handle, opens a new one if the pool is not full, or else waits for one to be returned.
+     */
+    private Handle borrow() throws IOException {
+        synchronized (this) {
+            long waitStart = 0;
+            while (true) {
+                if (this.closed) {
+                    throw new LoopFileSystemException("The input has been closed");
+                }
+                final Handle handle = this.idle.pollFirst();
+                if (null != handle) {
+                    this.borrowCount++;
+                    waited(waitStart);
+                    return handle;
+                }
+                if (this.handles < this.maxHandles) {
+                    this.handles++;
+                    this.borrowCount++;
+                    this.openCount++;
+                    waited(waitStart);
+                    break;
+                }
+                if (waitStart == 0) {
+                    this.waitCount++;
+                    waitStart = System.nanoTime();
+                }
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    waited(waitStart);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        // open outside the lock, so that returning handles is not held up by a slow open
+        boolean opened = false;
+        try {
+            final Handle handle = new Handle(this.factory.open());
+            opened = true;
+            return handle;
+        } finally {
+            if (!opened) {
+                synchronized (this) {
+                    this.handles--;
+                    notify();
+                }
+            }
+        }
+    }
+
+    private void waited(final long waitStart) {
+        if (waitStart != 0) {
+            this.waitNanos += System.nanoTime() - waitStart;
+        }
+    }
+
+    /**
+     * Returns a handle to the pool, or closes it if it failed or the pool has been closed.
+     */
+    private void release(final Handle handle, final boolean failed) {
+        synchronized (this) {
+            if (!failed && !this.closed) {
+                handle.returned = System.nanoTime();
+                this.idle.addFirst(handle);
+                notify();
+                return;
+            }
+            this.handles--;
+            notify();
+        }
+        close(handle);
+    }
+
+    private static void closeAll(final List<Handle> handles) {
+        for (Handle handle : handles) {
+            close(handle);
+        }
+    }
+
+    private static void close(final Handle handle) {
+        try {
+            handle.input.close();
+        } catch (IOException ex) {
+            // nothing to do, the handle is discarded anyway
+        }
+    }
+
+    /**
+     * An open input with the position of its file pointer, or -1 if that is not known.
+     */
+    private static final class Handle {
+
+        final SeekableInput input;
+        long position;
+        long returned;
+
+        Handle(final SeekableInput input) {
+            this.input = input;
+        }
+    }
+
+    /**
+     * Runs the idle eviction of all pools on a single background thread, which is only created when first used.
+     */
+    private static final class Evictor implements Runnable {
+
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "loop-fs-pool-evictor");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        // weak, so that a pool which is never closed can still be collected
+        private final WeakReference<SeekableInputPool> pool;
+
+        private Evictor(final SeekableInputPool pool) {
+            this.pool = new WeakReference<SeekableInputPool>(pool);
+        }
+
+        static ScheduledFuture<?> schedule(final SeekableInputPool pool, final long idleTimeout) {
+            final long period = Math.max(idleTimeout / 2, 1);
+            return SCHEDULER.scheduleWithFixedDelay(new Evictor(pool), period, period, TimeUnit.MILLISECONDS);
+        }
+
+        public void run() {
+            final SeekableInputPool pool = this.pool.get();
+            if (null == pool) {
+                // throwing is the only way a periodic task can cancel itself
+                throw new IllegalStateException("pool collected");
+            }
+            pool.evictIdle();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.stephenc.javaisotools.loopfs.spi;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link PositionalSeekableInput} that can hand a range of bytes straight to a channel, letting the operating system
+ * copy them (for example with sendfile or copy_file_range) without passing through a Java buffer.
+ */
+public interface TransferableSeekableInput extends PositionalSeekableInput {
+
+    /**
+     * Transfers up to <code>count</code> bytes starting at <code>pos</code> to <code>target</code> without changing
+     * the file pointer. Fewer bytes may be transferred, for instance if the target is a non-blocking channel whose
+     * buffer is full.
+     *
+     * @return the number of bytes transferred, possibly zero
+     *
+     * @see java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)
+     */
+    long transferTo(long pos, long count, WritableByteChannel target) throws IOException;
+}
@@ -19,8 +19,13 @@
 
 package com.github.stephenc.javaisotools.loopfs.util;
 
+import java.nio.ByteBuffer;
+
 /**
  * Big endian (MSB first) conversion methods.
+ * <p>
+ * The {@link ByteBuffer} variants use absolute indexes and work with heap, direct and mapped buffers alike. They
+ * neither depend on nor change the buffer's position, limit or byte order.
  */
 public class BigEndian {
 
@@ -43,4 +48,24 @@ public class BigEndian {
         final long v0 = src[offset + 3] & 0xFF;
         return ((v3 << 24) | (v2 << 16) | (v1 << 8) | v0);
     }
+
+    /**
+     * Gets a 16-bit unsigned integer from the given buffer at the given absolute index.
+     */
+    public static int getUInt16(ByteBuffer src, int offset) {
+        final int v1 = src.get(offset) & 0xFF;
+        final int v0 = src.get(offset + 1) & 0xFF;
+        return ((v1 << 8) | v0);
+    }
+
+    /**
+     * Gets a 32-bit unsigned integer from the given buffer at the given absolute index.
+     */
+    public static long getUInt32(ByteBuffer src, int offset) {
+        final long v3 = src.get(offset) & 0xFF;
+        final long v2 = src.get(offset + 1) & 0xFF;
+        final long v1 = src.get(offset + 2) & 0xFF;
+        final long v0 = src.get(offset + 3) & 0xFF;
+        return ((v3 << 24) | (v2 << 16) | (v1 << 8) | v0);
+    }
 }
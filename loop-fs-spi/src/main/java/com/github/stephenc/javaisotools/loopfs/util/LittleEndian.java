@@ -19,8 +19,13 @@
 
 package com.github.stephenc.javaisotools.loopfs.util;
 
+import java.nio.ByteBuffer;
+
 /**
  * Little endian (LSB first) conversion methods.
+ * <p>
+ * The {@link ByteBuffer} variants use absolute indexes and work with heap, direct and mapped buffers alike. They
+ * neither depend on nor change the buffer's position, limit or byte order.
  */
 public class LittleEndian {
 
@@ -57,4 +62,38 @@ public class LittleEndian {
         final long v3 = src[offset + 3] & 0xFF;
         return ((v3 << 24) | (v2 << 16) | (v1 << 8) | v0);
     }
+
+    /**
+     * Gets an 8-bit unsigned integer from the given buffer at the given absolute index.
+     */
+    public static int getUInt8(ByteBuffer src, int offset) {
+        return src.get(offset) & 0xFF;
+    }
+
+    /**
+     * Gets an 8-bit signed integer from the given buffer at the given absolute index.
+     */
+    public static int getInt8(ByteBuffer src, int offset) {
+        return src.get(offset);
+    }
+
+    /**
+     * Gets a 16-bit unsigned integer from the given buffer at the given absolute index.
+     */
+    public static int getUInt16(ByteBuffer src, int offset) {
+        final int v0 = src.get(offset) & 0xFF;
+        final int v1 = src.get(offset + 1) & 0xFF;
+        return ((v1 << 8) | v0);
+    }
+
+    /**
+     * Gets a 32-bit unsigned integer from the given buffer at the given absolute index.
+     */
+    public static long getUInt32(ByteBuffer src, int offset) {
+        final long v0 = src.get(offset) & 0xFF;
+        final long v1 = src.get(offset + 1) & 0xFF;
+        final long v2 = src.get(offset + 2) & 0xFF;
+        final long v3 = src.get(offset + 3) & 0xFF;
+        return ((v3 << 24) | (v2 << 16) | (v1 << 8) | v0);
+    }
 }
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
+import java.util.List;
 
 import com.github.stephenc.javaisotools.loopfs.spi.AbstractBlockFileSystem;
 import com.github.stephenc.javaisotools.loopfs.spi.SeekableInput;
@@ -43,6 +44,10 @@ public class UDFFileSystem extends AbstractBlockFileSystem<UDFFileEntry> {
         return null;
     }
 
+    public List<UDFFileEntry> listChildren(UDFFileEntry directory) {
+        return null;
+    }
+
     protected Iterator<UDFFileEntry> iterator(UDFFileEntry root) {
         return null;
     }